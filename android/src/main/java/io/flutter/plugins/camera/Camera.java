@@ -22,13 +22,18 @@ import android.media.Image;
 import android.media.ImageReader;
 import android.media.MediaRecorder;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.util.Log;
 import android.util.Size;
 import android.view.OrientationEventListener;
 import android.view.Surface;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
+import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel.Result;
 import io.flutter.view.TextureRegistry.SurfaceTextureEntry;
@@ -54,19 +59,40 @@ public class Camera {
     private final Size previewSize;
     private final boolean enableAudio;
 
-    private CameraDevice cameraDevice;
-    private CameraCaptureSession cameraCaptureSession;
+    // Set on the camera thread and read on the platform thread.
+    private volatile CameraDevice cameraDevice;
+    private volatile CameraCaptureSession cameraCaptureSession;
     private ImageReader pictureImageReader;
     private ImageReader imageStreamReader;
+    private final ImageStreamFramePool imageStreamFrames =
+            new ImageStreamFramePool(IMAGE_STREAM_POOL_SIZE);
+    private long imageStreamSequenceNumber;
+    private final ImageStreamCredits imageStreamCredits = new ImageStreamCredits();
     private DartMessenger dartMessenger;
-    private CaptureRequest.Builder captureRequestBuilder;
+    private volatile CaptureRequest.Builder captureRequestBuilder;
     private MediaRecorder mediaRecorder;
     private boolean recordingVideo;
     private CamcorderProfile recordingProfile;
     private int currentOrientation = ORIENTATION_UNKNOWN;
     private static final String TAG = "flutterCamera";
+    // Frames of the image stream that may be in flight at once.
+    private static final int IMAGE_STREAM_POOL_SIZE = 3;
     private CameraFix cameraFix = new CameraFix();
 
+    // Device and session callbacks run on the camera thread and ImageReader listeners on the
+    // image thread, so that neither competes with the platform thread. Results and messages to
+    // Dart are posted back to the platform thread. The plugin itself still runs the legacy
+    // CameraSource, which hands preview frames to its own processing workers.
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread cameraThread;
+    private Handler cameraHandler;
+    private HandlerThread imageThread;
+    private Handler imageHandler;
+
+    /** Binary channel of the packed image stream. The Dart plugin does not read it yet. */
+    public static final String PACKED_IMAGE_STREAM_CHANNEL =
+            "plugins.flutter.io/camera/imageStream/packed";
+
     // Mirrors camera.dart
     public enum ResolutionPreset {
         low,
@@ -180,6 +206,8 @@ public class Camera {
 
     @SuppressLint("MissingPermission")
     public void open(@NonNull final Result result) throws CameraAccessException {
+        startBackgroundThreads();
+
         pictureImageReader =
                 ImageReader.newInstance(
                         captureSize.getWidth(), captureSize.getHeight(), ImageFormat.JPEG, 2);
@@ -198,7 +226,8 @@ public class Camera {
                         try {
                             startPreview();
                         } catch (CameraAccessException e) {
-                            result.error("CameraAccess", e.getMessage(), null);
+                            mainHandler.post(
+                                    () -> result.error("CameraAccess", e.getMessage(), null));
                             close();
                             return;
                         }
@@ -206,19 +235,19 @@ public class Camera {
                         reply.put("textureId", flutterTexture.id());
                         reply.put("previewWidth", previewSize.getWidth());
                         reply.put("previewHeight", previewSize.getHeight());
-                        result.success(reply);
+                        mainHandler.post(() -> result.success(reply));
                     }
 
                     @Override
                     public void onClosed(@NonNull CameraDevice camera) {
-                        dartMessenger.sendCameraClosingEvent();
+                        mainHandler.post(() -> dartMessenger.sendCameraClosingEvent());
                         super.onClosed(camera);
                     }
 
                     @Override
                     public void onDisconnected(@NonNull CameraDevice cameraDevice) {
                         close();
-                        dartMessenger.send(DartMessenger.EventType.ERROR, "The camera was disconnected.");
+                        sendError("The camera was disconnected.");
                     }
 
                     @Override
@@ -244,10 +273,10 @@ public class Camera {
                             default:
                                 errorDescription = "Unknown camera error";
                         }
-                        dartMessenger.send(DartMessenger.EventType.ERROR, errorDescription);
+                        sendError(errorDescription);
                     }
                 },
-                null);
+                cameraHandler);
     }
 
     private void writeToFile(ByteBuffer buffer, File file) throws IOException {
@@ -276,12 +305,13 @@ public class Camera {
                     try (Image image = reader.acquireLatestImage()) {
                         ByteBuffer buffer = image.getPlanes()[0].getBuffer();
                         writeToFile(buffer, file);
-                        result.success(null);
+                        mainHandler.post(() -> result.success(null));
                     } catch (IOException e) {
-                        result.error("IOError", "Failed saving image", null);
+                        mainHandler.post(
+                                () -> result.error("IOError", "Failed saving image", null));
                     }
                 },
-                null);
+                imageHandler);
 
         try {
             final CaptureRequest.Builder captureBuilder =
@@ -308,10 +338,11 @@ public class Camera {
                                 default:
                                     reason = "Unknown reason";
                             }
-                            result.error("captureFailure", reason, null);
+                            final String message = reason;
+                            mainHandler.post(() -> result.error("captureFailure", message, null));
                         }
                     },
-                    null);
+                    cameraHandler);
         } catch (CameraAccessException e) {
             result.error("cameraAccess", e.getMessage(), null);
         }
@@ -352,26 +383,25 @@ public class Camera {
                     public void onConfigured(@NonNull CameraCaptureSession session) {
                         try {
                             if (cameraDevice == null) {
-                                dartMessenger.send(
-                                        DartMessenger.EventType.ERROR, "The camera was closed during configuration.");
+                                sendError("The camera was closed during configuration.");
                                 return;
                             }
                             cameraCaptureSession = session;
                             captureRequestBuilder.set(
                                     CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
-                            cameraCaptureSession.setRepeatingRequest(captureRequestBuilder.build(), null, null);
+                            session.setRepeatingRequest(
+                                    captureRequestBuilder.build(), null, cameraHandler);
                             if (onSuccessCallback != null) {
                                 onSuccessCallback.run();
                             }
                         } catch (CameraAccessException | IllegalStateException | IllegalArgumentException e) {
-                            dartMessenger.send(DartMessenger.EventType.ERROR, e.getMessage());
+                            sendError(e.getMessage());
                         }
                     }
 
                     @Override
                     public void onConfigureFailed(@NonNull CameraCaptureSession cameraCaptureSession) {
-                        dartMessenger.send(
-                                DartMessenger.EventType.ERROR, "Failed to configure camera session.");
+                        sendError("Failed to configure camera session.");
                     }
                 };
 
@@ -380,7 +410,7 @@ public class Camera {
         surfaceList.add(flutterSurface);
         surfaceList.addAll(remainingSurfaces);
         // Start the session
-        cameraDevice.createCaptureSession(surfaceList, callback, null);
+        cameraDevice.createCaptureSession(surfaceList, callback, cameraHandler);
     }
 
     public void startVideoRecording(String filePath, Result result) {
@@ -465,13 +495,35 @@ public class Camera {
 
     public void startPreviewWithImageStream(EventChannel imageStreamChannel)
             throws CameraAccessException {
+        startPreviewWithImageStream(imageStreamChannel, null);
+    }
+
+    /**
+     * Starts the preview and streams its images to Dart while the event channel is listened to.
+     *
+     * <p>If the listener passes a {@code credits} count as its argument, the stream is flow
+     * controlled: each image consumes a credit, images are dropped while there are none, and Dart
+     * grants more with {@link #grantImageStreamCredits(int)}. Before the next image after a drop,
+     * an event with the number of {@code droppedFrames} is sent on the event channel. The Dart
+     * plugin does not pass credits yet.
+     *
+     * @param packedMessenger if not null, images are sent on {@link #PACKED_IMAGE_STREAM_CHANNEL}
+     *                        through this messenger in the {@link PackedImageFormat} instead of as
+     *                        events of the event channel
+     */
+    public void startPreviewWithImageStream(
+            EventChannel imageStreamChannel, @Nullable final BinaryMessenger packedMessenger)
+            throws CameraAccessException {
         createCaptureSession(CameraDevice.TEMPLATE_RECORD, imageStreamReader.getSurface());
 
         imageStreamChannel.setStreamHandler(
                 new EventChannel.StreamHandler() {
                     @Override
                     public void onListen(Object o, EventChannel.EventSink imageStreamSink) {
-                        setImageStreamImageAvailableListener(imageStreamSink);
+                        Object credits = o instanceof Map ? ((Map<?, ?>) o).get("credits") : null;
+                        imageStreamCredits.reset(
+                                credits instanceof Number ? ((Number) credits).intValue() : 0);
+                        setImageStreamImageAvailableListener(imageStreamSink, packedMessenger);
                     }
 
                     @Override
@@ -481,52 +533,144 @@ public class Camera {
                 });
     }
 
-    private void setImageStreamImageAvailableListener(final EventChannel.EventSink imageStreamSink) {
+    private void setImageStreamImageAvailableListener(
+            final EventChannel.EventSink imageStreamSink,
+            @Nullable final BinaryMessenger packedMessenger) {
         imageStreamReader.setOnImageAvailableListener(
                 reader -> {
                     Image img = reader.acquireLatestImage();
                     if (img == null) return;
 
-                    List<Map<String, Object>> planes = new ArrayList<>();
-                    for (Image.Plane plane : img.getPlanes()) {
-                        ByteBuffer buffer = plane.getBuffer();
+                    long sequenceNumber = imageStreamSequenceNumber++;
+                    ImageStreamFramePool.Frame frame = imageStreamFrames.acquire();
+                    if (frame == null) {
+                        // Every frame is still in flight, drop this one.
+                        imageStreamCredits.recordDropped();
+                        img.close();
+                        return;
+                    }
+                    if (!imageStreamCredits.tryConsume()) {
+                        frame.release();
+                        img.close();
+                        return;
+                    }
+                    long droppedCount = imageStreamCredits.takeDroppedCount();
+                    try {
+                        if (packedMessenger != null) {
+                            packImage(img, sequenceNumber, frame);
+                        } else {
+                            Image.Plane[] planes = img.getPlanes();
+                            frame.setImage(
+                                    img.getWidth(), img.getHeight(), img.getFormat(),
+                                    planes.length);
+                            for (int i = 0; i < planes.length; i++) {
+                                Image.Plane plane = planes[i];
+                                frame.setPlane(
+                                        i,
+                                        plane.getBuffer(),
+                                        plane.getRowStride(),
+                                        plane.getPixelStride());
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        frame.release();
+                        throw e;
+                    } finally {
+                        img.close();
+                    }
+
+                    // Messages go out on the platform thread; the frame stays in flight until
+                    // then, so the next images are copied into other frames.
+                    mainHandler.post(
+                            () -> {
+                                try {
+                                    if (droppedCount > 0) {
+                                        Map<String, Object> event = new HashMap<>();
+                                        event.put("droppedFrames", droppedCount);
+                                        imageStreamSink.success(event);
+                                    }
+                                    if (packedMessenger != null) {
+                                        packedMessenger.send(
+                                                PACKED_IMAGE_STREAM_CHANNEL, frame.getPacked());
+                                    } else {
+                                        imageStreamSink.success(frame.getMessage());
+                                    }
+                                } finally {
+                                    frame.release();
+                                }
+                            });
+                },
+                imageHandler);
+    }
 
-                        byte[] bytes = new byte[buffer.remaining()];
-                        buffer.get(bytes, 0, bytes.length);
+    /** Lets a flow-controlled image stream send {@code credits} more images. */
+    public void grantImageStreamCredits(int credits) {
+        imageStreamCredits.grant(credits);
+    }
 
-                        Map<String, Object> planeBuffer = new HashMap<>();
-                        planeBuffer.put("bytesPerRow", plane.getRowStride());
-                        planeBuffer.put("bytesPerPixel", plane.getPixelStride());
-                        planeBuffer.put("bytes", bytes);
+    private static void packImage(
+            Image img, long sequenceNumber, ImageStreamFramePool.Frame frame) {
+        Image.Plane[] planes = img.getPlanes();
+        int dataSize = 0;
+        for (Image.Plane plane : planes) {
+            dataSize += plane.getBuffer().remaining();
+        }
+        frame.startPacked(
+                img.getWidth(), img.getHeight(), img.getFormat(), img.getTimestamp(),
+                sequenceNumber, planes.length, dataSize);
+        for (Image.Plane plane : planes) {
+            frame.packPlane(plane.getBuffer(), plane.getRowStride(), plane.getPixelStride());
+        }
+    }
 
-                        planes.add(planeBuffer);
-                    }
+    private void sendError(final String description) {
+        mainHandler.post(() -> dartMessenger.send(DartMessenger.EventType.ERROR, description));
+    }
 
-                    Map<String, Object> imageBuffer = new HashMap<>();
-                    imageBuffer.put("width", img.getWidth());
-                    imageBuffer.put("height", img.getHeight());
-                    imageBuffer.put("format", img.getFormat());
-                    imageBuffer.put("planes", planes);
+    private void startBackgroundThreads() {
+        if (cameraThread == null) {
+            cameraThread = new HandlerThread("CameraBackground");
+            cameraThread.start();
+            cameraHandler = new Handler(cameraThread.getLooper());
+        }
+        if (imageThread == null) {
+            imageThread = new HandlerThread("CameraImages");
+            imageThread.start();
+            imageHandler = new Handler(imageThread.getLooper());
+        }
+    }
 
-                    imageStreamSink.success(imageBuffer);
-                    img.close();
-                },
-                null);
+    /**
+     * Lets a thread finish what it has been posted and waits for it, unless it is the current
+     * thread, e.g. when the camera closes itself from one of its callbacks.
+     */
+    private static void quitThread(HandlerThread thread) {
+        thread.quitSafely();
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     private void closeCaptureSession() {
-        if (cameraCaptureSession != null) {
-            cameraCaptureSession.close();
+        CameraCaptureSession session = cameraCaptureSession;
+        if (session != null) {
             cameraCaptureSession = null;
+            session.close();
         }
     }
 
     public void close() {
         closeCaptureSession();
 
-        if (cameraDevice != null) {
-            cameraDevice.close();
+        CameraDevice device = cameraDevice;
+        if (device != null) {
             cameraDevice = null;
+            device.close();
         }
         if (pictureImageReader != null) {
             pictureImageReader.close();
@@ -536,6 +680,13 @@ public class Camera {
             imageStreamReader.close();
             imageStreamReader = null;
         }
+        // The readers are closed, so nothing is delivered to the image thread anymore. The
+        // camera thread stays until dispose(), to deliver the onClosed callback of the device.
+        if (imageThread != null) {
+            quitThread(imageThread);
+            imageThread = null;
+            imageHandler = null;
+        }
         if (mediaRecorder != null) {
             mediaRecorder.reset();
             mediaRecorder.release();
@@ -545,6 +696,11 @@ public class Camera {
 
     public void dispose() {
         close();
+        if (cameraThread != null) {
+            quitThread(cameraThread);
+            cameraThread = null;
+            cameraHandler = null;
+        }
         flutterTexture.release();
         orientationEventListener.disable();
     }
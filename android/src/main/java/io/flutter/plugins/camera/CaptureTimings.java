@@ -0,0 +1,35 @@
+package io.flutter.plugins.camera;
+
+/**
+ * Times the stages of saving a photo, for a one-line report such as
+ * {@code "queued 2ms, decode 210ms, rotate 41ms, encode 180ms, total 433ms"}.
+ *
+ * <p>Each stage lasts from the previous {@link #mark(String)}, or the construction for the first
+ * one, until its own mark.
+ */
+final class CaptureTimings {
+    private final long startNanos;
+    private long lastNanos;
+    private final StringBuilder report = new StringBuilder();
+
+    CaptureTimings() {
+        startNanos = System.nanoTime();
+        lastNanos = startNanos;
+    }
+
+    /** Ends the stage with the given name. */
+    void mark(String stage) {
+        long now = System.nanoTime();
+        report.append(stage).append(' ').append(toMillis(now - lastNanos)).append("ms, ");
+        lastNanos = now;
+    }
+
+    /** Returns the stages marked so far and the total time since the construction. */
+    String report() {
+        return report + "total " + toMillis(lastNanos - startNanos) + "ms";
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+}
@@ -0,0 +1,79 @@
+package io.flutter.plugins.camera;
+
+import android.graphics.BitmapFactory;
+
+/**
+ * Plans a decode that lands on a maximum edge in one pass.
+ *
+ * <p>The decoder first subsamples by the largest power of two that keeps the longer edge at or
+ * above the target, which is cheap and bounds the memory of the decode, then scales the rest of
+ * the way through {@code inDensity}/{@code inTargetDensity}. Images that already fit are decoded
+ * as they are.
+ */
+final class DecodePlan {
+    private final int edge;
+    private final int sampleSize;
+    private final int outputEdge;
+
+    private DecodePlan(int edge, int sampleSize, int outputEdge) {
+        this.edge = edge;
+        this.sampleSize = sampleSize;
+        this.outputEdge = outputEdge;
+    }
+
+    /** Plans the decode of a {@code width} by {@code height} image to at most {@code maxEdge}. */
+    static DecodePlan forMaxEdge(int width, int height, int maxEdge) {
+        if (maxEdge <= 0) {
+            throw new IllegalArgumentException("Invalid maximum edge: " + maxEdge);
+        }
+        int edge = Math.max(width, height);
+        if (edge <= maxEdge) {
+            return new DecodePlan(edge, 1, edge);
+        }
+        int sampleSize = 1;
+        while (edge / (sampleSize * 2) >= maxEdge) {
+            sampleSize *= 2;
+        }
+        return new DecodePlan(edge, sampleSize, maxEdge);
+    }
+
+    int getSampleSize() {
+        return sampleSize;
+    }
+
+    /** Returns the longer edge after subsampling, rounded up as JPEG decoders do. */
+    int getSampledEdge() {
+        return (edge + sampleSize - 1) / sampleSize;
+    }
+
+    /** Returns the longer edge of the decoded bitmap. */
+    int getOutputEdge() {
+        return outputEdge;
+    }
+
+    /**
+     * Returns a plan that subsamples twice as much, for a retry when the decode runs out of
+     * memory. It never scales up, so it may end below the target.
+     */
+    DecodePlan coarser() {
+        int coarserSampleSize = sampleSize * 2;
+        int sampledEdge = (edge + coarserSampleSize - 1) / coarserSampleSize;
+        return new DecodePlan(edge, coarserSampleSize, Math.min(outputEdge, sampledEdge));
+    }
+
+    void applyTo(BitmapFactory.Options options) {
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        int sampledEdge = getSampledEdge();
+        if (sampledEdge != outputEdge) {
+            options.inScaled = true;
+            options.inDensity = sampledEdge;
+            options.inTargetDensity = outputEdge;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "1/" + sampleSize + " to " + outputEdge + "px";
+    }
+}
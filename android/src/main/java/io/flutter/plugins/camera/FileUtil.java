@@ -32,8 +32,10 @@ import java.util.Locale;
  * Email: tyshengsx@gmail.com
  */
 public class FileUtil {
-    private static final int MAX_IMAGE_WIDTH = 1920;
+    static final int MAX_IMAGE_WIDTH = 1920;
+    static final int JPEG_QUALITY = 95;
     private static final String TAG = "FileUtil";
+    private static final int MAX_DECODE_ATTEMPTS = 3;
 
     public static void copy(File src, File dst, boolean deleteSrc) throws IOException {
         FileChannel inputChannel = null;
@@ -59,12 +61,10 @@ public class FileUtil {
     }
 
 
-    public static String compress(Context context, String originalImagePath, String targetPath) {
+    public static String compress(Context context, String originalImagePath, String targetPath)
+            throws IOException {
         File originalImageFile = new File(originalImagePath);
         if (originalImageFile.exists()) {
-            File compressedFile = new File(targetPath);
-
-            OutputStream outputStream = null;
             BitmapFactory.Options options = new BitmapFactory.Options();
             options.inJustDecodeBounds = true;
             BitmapFactory.decodeFile(originalImagePath, options);
@@ -72,40 +72,165 @@ public class FileUtil {
             int currentWidth = options.outWidth;
 
             Log.d(TAG, "current " + currentWidth + "," + currentHeight);
-            Bitmap originalImage;
+            Bitmap originalImage =
+                    decode(null, originalImagePath, currentWidth, currentHeight, false);
+            originalImage = addExif(originalImage, originalImagePath);
+            return writeJpeg(context, originalImage, new File(targetPath));
+        }
+
+
+        return originalImagePath;
+    }
+
+    /**
+     * Like {@link #compress(Context, String, String)}, but takes the JPEG straight from memory, so
+     * that the only file touched is the output.
+     */
+    public static String compress(Context context, byte[] jpeg, String targetPath)
+            throws IOException {
+        return compress(context, jpeg, targetPath, CompressOptions.DEFAULT, null);
+    }
+
+    /**
+     * Like {@link #compress(Context, byte[], String)}, with options, marking the stages in
+     * {@code timings}.
+     */
+    static String compress(
+            Context context, byte[] jpeg, String targetPath, CompressOptions compressOptions,
+            @Nullable CaptureTimings timings) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+        int currentHeight = options.outHeight;
+        int currentWidth = options.outWidth;
+        int orientation = JpegExif.readOrientation(jpeg);
+        File compressedFile = new File(targetPath);
+
+        Log.d(TAG, "current " + currentWidth + "," + currentHeight);
+        boolean upright = orientation == ExifInterface.ORIENTATION_UNDEFINED
+                || orientation == ExifInterface.ORIENTATION_NORMAL;
+        if ((compressOptions.exifOrientation || upright)
+                && Math.max(currentWidth, currentHeight) <= MAX_IMAGE_WIDTH) {
+            // Nothing to resize, and the capture is either upright or carries its orientation
+            // tag, so it is already the output.
+            writeBytes(context, jpeg, compressedFile);
+            mark(timings, "write");
+            return compressedFile.getAbsolutePath();
+        }
+        Bitmap originalImage = decode(
+                jpeg, null, currentWidth, currentHeight, compressOptions.lowMemoryDecode);
+        if (originalImage == null) {
+            throw new IllegalArgumentException("Cannot decode the captured image.");
+        }
+        mark(timings, "decode");
+        if (compressOptions.exifOrientation) {
+            String path = writeJpeg(context, originalImage, compressedFile);
+            mark(timings, "encode");
+            writeOrientation(path, orientation);
+            mark(timings, "exif");
+            return path;
+        }
+        originalImage = rotate(originalImage, orientation);
+        mark(timings, "rotate");
+        String path = writeJpeg(context, originalImage, compressedFile);
+        mark(timings, "encode");
+        return path;
+    }
+
+    /** How {@link #compress(Context, byte[], String, CompressOptions, CaptureTimings)} works. */
+    static final class CompressOptions {
+        static final CompressOptions DEFAULT = new CompressOptions(false, false);
 
-            float maxEdge = Math.max(currentHeight, currentWidth);
+        /** Whether to decode to {@code RGB_565}, which takes half the memory. */
+        final boolean lowMemoryDecode;
 
-            if (maxEdge > MAX_IMAGE_WIDTH) {
-                options.inJustDecodeBounds = false;
-                options.inSampleSize = 2;
+        /**
+         * Whether to keep the pixels as captured and carry the orientation in the EXIF tag of the
+         * output, instead of rotating the pixels upright. Photos that need no resizing are then
+         * written as they are, without being decoded at all.
+         */
+        final boolean exifOrientation;
 
-//                    while (maxEdge / options.inSampleSize > MAX_IMAGE_WIDTH) {
-//                        options.inSampleSize *= 2;
-//                    }
+        CompressOptions(boolean lowMemoryDecode, boolean exifOrientation) {
+            this.lowMemoryDecode = lowMemoryDecode;
+            this.exifOrientation = exifOrientation;
+        }
+    }
+
+    private static void mark(@Nullable CaptureTimings timings, String stage) {
+        if (timings != null) {
+            timings.mark(stage);
+        }
+    }
 
-                originalImage = BitmapFactory.decodeFile(originalImagePath, options);
-            } else {
-                originalImage = BitmapFactory.decodeFile(originalImagePath);
+    /**
+     * Decodes an image of the given size to at most {@link #MAX_IMAGE_WIDTH} on its longer edge,
+     * from {@code jpeg} if it is not null and from the file at {@code path} otherwise. Retries with
+     * coarser subsampling when the heap runs out.
+     */
+    @Nullable
+    private static Bitmap decode(
+            @Nullable byte[] jpeg, @Nullable String path, int width, int height,
+            boolean lowMemory) {
+        DecodePlan plan = DecodePlan.forMaxEdge(width, height, MAX_IMAGE_WIDTH);
+        for (int attempt = 1; ; attempt++) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            plan.applyTo(options);
+            if (lowMemory) {
+                options.inPreferredConfig = Bitmap.Config.RGB_565;
             }
-            originalImage = addExif(originalImage, originalImagePath);
             try {
-                outputStream = context.getContentResolver().openOutputStream(Uri.fromFile(compressedFile));
-                Log.d(TAG, "new " + originalImage.getWidth() + "," + originalImage.getHeight());
-                originalImage.compress(Bitmap.CompressFormat.JPEG, 95, outputStream);
-                originalImage.recycle();
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } finally {
-                close(outputStream);
+                return jpeg != null
+                        ? BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options)
+                        : BitmapFactory.decodeFile(path, options);
+            } catch (OutOfMemoryError e) {
+                if (attempt >= MAX_DECODE_ATTEMPTS) {
+                    throw e;
+                }
+                Log.w(TAG, "decode: out of memory at " + plan + ", retrying", e);
+                plan = plan.coarser();
             }
+        }
+    }
 
-            Log.d(TAG, "final size=" + compressedFile.length());
-            return compressedFile.getAbsolutePath();
+    private static void writeBytes(Context context, byte[] jpeg, File file) throws IOException {
+        // Closing flushes the file, so its errors are not ignored.
+        try (OutputStream outputStream = openOutputStream(context, file)) {
+            outputStream.write(jpeg);
         }
+    }
 
+    private static void writeOrientation(String path, int orientation) throws IOException {
+        if (orientation == ExifInterface.ORIENTATION_UNDEFINED) {
+            return;
+        }
+        ExifInterface exif = new ExifInterface(path);
+        exif.setAttribute(ExifInterface.TAG_ORIENTATION, Integer.toString(orientation));
+        exif.saveAttributes();
+    }
 
-        return originalImagePath;
+    private static String writeJpeg(Context context, Bitmap image, File compressedFile)
+            throws IOException {
+        try (OutputStream outputStream = openOutputStream(context, compressedFile)) {
+            Log.d(TAG, "new " + image.getWidth() + "," + image.getHeight());
+            if (!image.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream)) {
+                throw new IOException("Cannot encode " + compressedFile);
+            }
+        } finally {
+            image.recycle();
+        }
+
+        Log.d(TAG, "final size=" + compressedFile.length());
+        return compressedFile.getAbsolutePath();
+    }
+
+    private static OutputStream openOutputStream(Context context, File file) throws IOException {
+        OutputStream outputStream =
+                context.getContentResolver().openOutputStream(Uri.fromFile(file));
+        if (outputStream == null) {
+            throw new FileNotFoundException("Cannot open " + file);
+        }
+        return outputStream;
     }
 
     public static void close(@Nullable Closeable c) {
@@ -120,29 +245,32 @@ public class FileUtil {
 
 
     private static Bitmap addExif(Bitmap target, String originPath) {
-        ExifInterface exif;
-        Bitmap bitmap = null;
         try {
-            exif = new ExifInterface(originPath);
-            int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 0);
-            Matrix matrix = new Matrix();
-            if (orientation == 6) {
-                matrix.postRotate(90);
-            } else if (orientation == 3) {
-                matrix.postRotate(180);
-            } else if (orientation == 8) {
-                matrix.postRotate(270);
-            }
-            bitmap = Bitmap.createBitmap(target, 0, 0,
-                    target.getWidth(), target.getHeight(),
-                    matrix, true);
+            ExifInterface exif = new ExifInterface(originPath);
+            return rotate(target, exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, 0));
         } catch (IOException e) {
             e.printStackTrace();
         }
-        if (bitmap == null) {
-            return target;
+        return target;
+    }
+
+    private static Bitmap rotate(Bitmap target, int orientation) {
+        Matrix matrix = new Matrix();
+        if (orientation == 6) {
+            matrix.postRotate(90);
+        } else if (orientation == 3) {
+            matrix.postRotate(180);
+        } else if (orientation == 8) {
+            matrix.postRotate(270);
         } else {
-            return bitmap;
+            return target;
+        }
+        Bitmap bitmap = Bitmap.createBitmap(target, 0, 0,
+                target.getWidth(), target.getHeight(),
+                matrix, true);
+        if (bitmap != target) {
+            target.recycle();
         }
+        return bitmap;
     }
 }
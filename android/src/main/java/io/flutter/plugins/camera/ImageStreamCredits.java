@@ -0,0 +1,60 @@
+package io.flutter.plugins.camera;
+
+/**
+ * Flow control of the image stream: Dart grants credits, each image sent to it consumes one, and
+ * images are dropped while none are left, so that a slow listener does not make frames pile up in
+ * the platform channel.
+ *
+ * <p>Without credits the stream is unlimited, as it was before flow control. Dropped images are
+ * counted until the next image gets through, so the count can be reported along with it.
+ */
+final class ImageStreamCredits {
+    private static final int UNLIMITED = -1;
+
+    // The fields below are guarded by this.
+    private int credits = UNLIMITED;
+    private long droppedCount;
+
+    /**
+     * Starts over with {@code initialCredits}, or without a limit if it is not positive.
+     */
+    synchronized void reset(int initialCredits) {
+        credits = initialCredits > 0 ? initialCredits : UNLIMITED;
+        droppedCount = 0;
+    }
+
+    /** Adds credits, when Dart is done with the images it had. */
+    synchronized void grant(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Invalid credit count: " + count);
+        }
+        if (credits != UNLIMITED) {
+            credits += count;
+        }
+    }
+
+    /** Consumes a credit for an image, or counts the image as dropped if there is none. */
+    synchronized boolean tryConsume() {
+        if (credits == UNLIMITED) {
+            return true;
+        }
+        if (credits > 0) {
+            credits--;
+            return true;
+        }
+        droppedCount++;
+        return false;
+    }
+
+    /** Counts an image that was dropped for another reason. */
+    synchronized void recordDropped() {
+        droppedCount++;
+    }
+
+    /** Returns how many images were dropped since the last call, and starts counting anew. */
+    synchronized long takeDroppedCount() {
+        long count = droppedCount;
+        droppedCount = 0;
+        return count;
+    }
+}
@@ -0,0 +1,163 @@
+package io.flutter.plugins.camera;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small ring of reusable image stream messages, so that sending a frame to Dart does not
+ * allocate plane arrays and maps for every frame.
+ *
+ * <p>Each frame keeps its plane arrays, plane maps, plane list and outer map, and refills them in
+ * place. Plane arrays are reallocated only when the size of a plane changes, which for a given
+ * {@link android.media.ImageReader} happens at most once. A frame stays in flight from {@link
+ * #acquire()} until {@link Frame#release()}, and is never handed out again in between; when every
+ * frame is in flight the caller drops the image.
+ *
+ * <p>Frames can also be packed into one direct buffer in the {@link PackedImageFormat}, which is
+ * likewise kept and only reallocated when it is too small.
+ *
+ * <p>Only the Camera2 {@link Camera} streams images through this pool, and the plugin does not
+ * create one yet: {@link MethodCallHandlerImpl} runs the legacy {@link
+ * io.flutter.plugins.camera.common.CameraSource}, whose preview buffers are pooled by its {@link
+ * io.flutter.plugins.camera.common.PreviewBufferPool}.
+ */
+final class ImageStreamFramePool {
+    private final Frame[] frames;
+
+    // Guarded by this.
+    private int next;
+
+    ImageStreamFramePool(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid pool size: " + size);
+        }
+        frames = new Frame[size];
+        for (int i = 0; i < size; i++) {
+            frames[i] = new Frame();
+        }
+    }
+
+    /** Returns a frame that is not in flight, or null if all of them are. */
+    @Nullable
+    synchronized Frame acquire() {
+        for (int i = 0; i < frames.length; i++) {
+            Frame frame = frames[(next + i) % frames.length];
+            if (!frame.inFlight) {
+                frame.inFlight = true;
+                next = (next + i + 1) % frames.length;
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    private synchronized void release(Frame frame) {
+        frame.inFlight = false;
+    }
+
+    /** The message of one image stream frame, in the layout that {@code camera.dart} expects. */
+    final class Frame {
+        private final Map<String, Object> message = new HashMap<>();
+        private final List<Map<String, Object>> planes = new ArrayList<>();
+        private final List<Map<String, Object>> planeMaps = new ArrayList<>();
+        private final List<byte[]> planeBytes = new ArrayList<>();
+        private ByteBuffer packed = ByteBuffer.allocateDirect(0);
+        private int packedPlaneCount;
+
+        // Guarded by the pool.
+        private boolean inFlight;
+
+        private Frame() {
+            message.put("planes", planes);
+        }
+
+        /** Sets the image attributes and the number of planes, to be filled with setPlane. */
+        void setImage(int width, int height, int format, int planeCount) {
+            putInt(message, "width", width);
+            putInt(message, "height", height);
+            putInt(message, "format", format);
+            while (planeMaps.size() < planeCount) {
+                planeMaps.add(new HashMap<String, Object>());
+                planeBytes.add(null);
+            }
+            planes.clear();
+            for (int i = 0; i < planeCount; i++) {
+                planes.add(planeMaps.get(i));
+            }
+        }
+
+        /** Copies the remaining bytes of {@code buffer} into plane {@code index}. */
+        void setPlane(int index, ByteBuffer buffer, int rowStride, int pixelStride) {
+            byte[] bytes = planeBytes.get(index);
+            if (bytes == null || bytes.length != buffer.remaining()) {
+                bytes = new byte[buffer.remaining()];
+                planeBytes.set(index, bytes);
+            }
+            buffer.get(bytes, 0, bytes.length);
+
+            Map<String, Object> plane = planeMaps.get(index);
+            putInt(plane, "bytesPerRow", rowStride);
+            putInt(plane, "bytesPerPixel", pixelStride);
+            plane.put("bytes", bytes);
+        }
+
+        /**
+         * Starts packing an image, to be continued with packPlane for each plane in order.
+         *
+         * @param dataSize total number of bytes in all planes
+         */
+        void startPacked(
+                int width, int height, int format, long timestamp, long sequenceNumber,
+                int planeCount, int dataSize) {
+            int size = PackedImageFormat.getDataOffset(planeCount) + dataSize;
+            if (packed.capacity() < size) {
+                packed = ByteBuffer.allocateDirect(size).order(PackedImageFormat.ORDER);
+            }
+            packed.clear();
+            PackedImageFormat.writeHeader(
+                    packed, width, height, format, timestamp, sequenceNumber, planeCount);
+            packed.position(PackedImageFormat.getDataOffset(planeCount));
+            packedPlaneCount = 0;
+        }
+
+        /** Appends the remaining bytes of {@code buffer} as the next plane. */
+        void packPlane(ByteBuffer buffer, int rowStride, int pixelStride) {
+            int offset = packed.position();
+            int length = buffer.remaining();
+            packed.put(buffer);
+            PackedImageFormat.writePlaneHeader(
+                    packed, packedPlaneCount++, rowStride, pixelStride, offset, length);
+        }
+
+        /**
+         * Returns the packed message. Its position is at the end of the message, which is how
+         * {@link io.flutter.plugin.common.BinaryMessenger#send} tells its size.
+         */
+        ByteBuffer getPacked() {
+            return packed;
+        }
+
+        /** Returns the message to send; it stays valid until the frame is released. */
+        Map<String, Object> getMessage() {
+            return message;
+        }
+
+        /** Returns the frame to the pool once its message has been sent. */
+        void release() {
+            ImageStreamFramePool.this.release(this);
+        }
+    }
+
+    /** Puts a value, keeping the boxed one already in the map if it is equal. */
+    private static void putInt(Map<String, Object> map, String key, int value) {
+        Object current = map.get(key);
+        if (!(current instanceof Integer) || (Integer) current != value) {
+            map.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.flutter.plugins.camera;
+
+import android.media.ExifInterface;
+
+/**
+ * Reads the EXIF orientation of a JPEG straight from its bytes.
+ *
+ * <p>{@link ExifInterface} only reads streams from API 24 on, and before that would need the JPEG
+ * in a file. Only the first IFD of the APP1 segment is looked at, which is where cameras put the
+ * orientation.
+ */
+final class JpegExif {
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+
+    private JpegExif() {
+    }
+
+    /**
+     * Returns the orientation tag, one of the {@code ExifInterface.ORIENTATION_*} values, or
+     * {@link ExifInterface#ORIENTATION_UNDEFINED} if the JPEG has none.
+     */
+    static int readOrientation(byte[] jpeg) {
+        int tiff = findTiffHeader(jpeg);
+        if (tiff < 0) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        boolean littleEndian = jpeg[tiff] == 'I';
+        int ifd = tiff + readInt(jpeg, tiff + 4, littleEndian);
+        if (ifd < tiff || ifd + 2 > jpeg.length) {
+            return ExifInterface.ORIENTATION_UNDEFINED;
+        }
+        int count = readShort(jpeg, ifd, littleEndian);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > jpeg.length) {
+                break;
+            }
+            if (readShort(jpeg, entry, littleEndian) == TAG_ORIENTATION
+                    && readShort(jpeg, entry + 2, littleEndian) == TYPE_SHORT) {
+                return readShort(jpeg, entry + 8, littleEndian);
+            }
+        }
+        return ExifInterface.ORIENTATION_UNDEFINED;
+    }
+
+    /** Returns the offset of the TIFF header in the EXIF segment, or -1 if there is none. */
+    private static int findTiffHeader(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xff || (jpeg[1] & 0xff) != 0xd8) {
+            return -1;
+        }
+        int position = 2;
+        while (position + 4 <= jpeg.length && (jpeg[position] & 0xff) == 0xff) {
+            int marker = jpeg[position + 1] & 0xff;
+            if (marker == 0xda || marker == 0xd9) {
+                // Start of scan or end of image: no metadata follows.
+                return -1;
+            }
+            int length = readShort(jpeg, position + 2, false);
+            int data = position + 4;
+            if (marker == 0xe1 && data + 14 <= jpeg.length
+                    && jpeg[data] == 'E' && jpeg[data + 1] == 'x'
+                    && jpeg[data + 2] == 'i' && jpeg[data + 3] == 'f'
+                    && jpeg[data + 4] == 0 && jpeg[data + 5] == 0) {
+                int tiff = data + 6;
+                boolean littleEndian = jpeg[tiff] == 'I' && jpeg[tiff + 1] == 'I';
+                boolean bigEndian = jpeg[tiff] == 'M' && jpeg[tiff + 1] == 'M';
+                if ((littleEndian || bigEndian)
+                        && readShort(jpeg, tiff + 2, littleEndian) == 42) {
+                    return tiff;
+                }
+            }
+            position += 2 + length;
+        }
+        return -1;
+    }
+
+    private static int readShort(byte[] bytes, int offset, boolean littleEndian) {
+        int first = bytes[offset] & 0xff;
+        int second = bytes[offset + 1] & 0xff;
+        return littleEndian ? first | second << 8 : first << 8 | second;
+    }
+
+    private static int readInt(byte[] bytes, int offset, boolean littleEndian) {
+        int first = readShort(bytes, offset, littleEndian);
+        int second = readShort(bytes, offset + 2, littleEndian);
+        return littleEndian ? first | second << 16 : first << 16 | second;
+    }
+}
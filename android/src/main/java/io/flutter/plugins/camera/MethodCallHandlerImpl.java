@@ -10,16 +10,23 @@ import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import io.flutter.plugin.common.BinaryMessenger;
 import io.flutter.plugin.common.MethodCall;
@@ -39,6 +46,22 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
     private TextureRegistry textureRegistry;
     private DartMessenger dartMessenger;
     private static final String TAG = "MethodCallHandlerImpl";
+    private static final long DEFAULT_SHARP_FRAME_TIMEOUT_MILLIS = 2000;
+    // Photos waiting to be saved behind the one being saved; more are rejected.
+    private static final int CAPTURE_QUEUE_CAPACITY = 2;
+
+    // Saves photos off the platform thread, one at a time.
+    private final ExecutorService captureExecutor =
+            new ThreadPoolExecutor(
+                    1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(CAPTURE_QUEUE_CAPACITY),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            return new Thread(runnable, "MethodCallHandler-capture");
+                        }
+                    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     MethodCallHandlerImpl(
             Activity activity,
@@ -76,8 +99,26 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
             }
             case "takePicture": {
                 String path = call.argument("path");
+                FileUtil.CompressOptions compressOptions =
+                        new FileUtil.CompressOptions(
+                                isTrue(call.<Boolean>argument("lowMemoryDecode")),
+                                isTrue(call.<Boolean>argument("exifOrientation")));
                 if (camera != null) {
-                    camera.takePhoto(path, result);
+                    Boolean waitForSharpFrame = call.argument("waitForSharpFrame");
+                    if (waitForSharpFrame != null && waitForSharpFrame) {
+                        Double threshold = call.argument("sharpnessThreshold");
+                        Number timeoutMillis = call.argument("sharpFrameTimeoutMillis");
+                        camera.takeSharpPhoto(
+                                path,
+                                threshold != null ? threshold : Double.POSITIVE_INFINITY,
+                                timeoutMillis != null
+                                        ? timeoutMillis.longValue()
+                                        : DEFAULT_SHARP_FRAME_TIMEOUT_MILLIS,
+                                compressOptions,
+                                result);
+                    } else {
+                        camera.takePhoto(path, compressOptions, result);
+                    }
                 }
                 break;
             }
@@ -101,6 +142,12 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
 
     void stopListening() {
         methodChannel.setMethodCallHandler(null);
+        // Photos already taken are still saved.
+        captureExecutor.shutdown();
+    }
+
+    private static boolean isTrue(@Nullable Boolean value) {
+        return value != null && value;
     }
 
     // We move catching CameraAccessException out of onMethodCall because it causes a crash
@@ -185,6 +232,10 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
             } else {
                 cameraSource = new CameraSource(activity);
                 cameraSource.setFacing(isFrontFacing ? 1 : 0);
+                // Take photos close to the size they are saved at, so that they can often be
+                // saved as captured.
+                cameraSource.setMaxPictureEdge(FileUtil.MAX_IMAGE_WIDTH);
+                cameraSource.setJpegQuality(FileUtil.JPEG_QUALITY);
 
                 preview = new CameraSourcePreview(activity, null, textureEntry.surfaceTexture());
 
@@ -214,35 +265,96 @@ final class MethodCallHandlerImpl implements MethodChannel.MethodCallHandler {
 
         }
 
-        private void takePhoto(String path, Result result) {
+        private void takePhoto(
+                String path, FileUtil.CompressOptions compressOptions, Result result) {
             if (cameraSource != null) {
-                cameraSource.takePhoto(new android.hardware.Camera.PictureCallback() {
-                    @Override
-                    public void onPictureTaken(byte[] data, android.hardware.Camera camera) {
-                        long start = System.currentTimeMillis();
-                        File temp = new File(activity.getCacheDir(), "photo_temp.jpg");
-                        if (!temp.exists()) {
-                            try {
-                                temp.createNewFile();
-                            } catch (IOException e) {
-                                e.printStackTrace();
+                cameraSource.takePhoto(photoCallback(path, compressOptions, result));
+            }
+        }
+
+        /**
+         * Takes the photo once the preview is sharp enough, see {@link
+         * CameraSource#takeSharpPhoto}.
+         */
+        private void takeSharpPhoto(
+                String path, double threshold, long timeoutMillis,
+                FileUtil.CompressOptions compressOptions, final Result result) {
+            if (cameraSource != null) {
+                try {
+                    cameraSource.takeSharpPhoto(
+                            threshold, timeoutMillis,
+                            photoCallback(path, compressOptions, result),
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    result.error("captureCancelled",
+                                            "The photo could not be taken.",
+                                            null);
+                                }
+                            });
+                } catch (IllegalStateException e) {
+                    result.error("captureInProgress", e.getMessage(), null);
+                }
+            }
+        }
+
+        private android.hardware.Camera.PictureCallback photoCallback(
+                final String path, final FileUtil.CompressOptions compressOptions,
+                final Result result) {
+            return new android.hardware.Camera.PictureCallback() {
+                @Override
+                public void onPictureTaken(
+                        final byte[] data, android.hardware.Camera camera) {
+                    final CaptureTimings timings = new CaptureTimings();
+                    try {
+                        captureExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                savePhoto(data, path, compressOptions, timings, result);
                             }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        if (captureExecutor.isShutdown()) {
+                            result.error("captureClosed",
+                                    "The plugin was detached before the photo was saved.", null);
+                        } else {
+                            result.error(
+                                    "captureBusy", "Too many photos are being saved.", null);
                         }
-                        try {
-                            FileOutputStream fos = new FileOutputStream(temp);
-                            fos.write(data);
-                            fos.close();
-                        } catch (Exception e) {
-                            Log.e(TAG, "onPictureTaken: ", e);
-                        }
-                        Log.d(TAG, "onPictureTaken: " + path);
-                        long timeCost = System.currentTimeMillis() - start;
-                        Log.d(TAG, "onPictureTaken: " + timeCost);
-                        FileUtil.compress(activity, temp.getAbsolutePath(), new File(path).getAbsolutePath());
-                        result.success(path);
+                    }
+                }
+            };
+        }
+
+        /** Runs on the capture executor; the result goes back on the platform thread. */
+        private void savePhoto(
+                byte[] data, final String path, FileUtil.CompressOptions compressOptions,
+                CaptureTimings timings, final Result result) {
+            timings.mark("queued");
+            try {
+                FileUtil.compress(
+                        activity, data, new File(path).getAbsolutePath(), compressOptions,
+                        timings);
+            } catch (IOException | RuntimeException | OutOfMemoryError e) {
+                Log.e(TAG, "savePhoto: " + path, e);
+                // Don't leave a truncated photo behind.
+                new File(path).delete();
+                final String message = e.toString();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        result.error("IOError", message, null);
                     }
                 });
+                return;
             }
+            Log.d(TAG, "savePhoto: " + path + ": " + timings.report());
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    result.success(path);
+                }
+            });
         }
 
         private void dispose() {
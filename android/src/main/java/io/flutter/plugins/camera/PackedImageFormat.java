@@ -0,0 +1,63 @@
+package io.flutter.plugins.camera;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the packed image stream frames, which carry a whole image in one binary message
+ * instead of a {@code StandardMessageCodec} map. Mirrors {@code CameraImage._fromPackedData} in
+ * {@code camera_image.dart}.
+ *
+ * <p>All values are little-endian. The header is
+ *
+ * <pre>
+ *   0  int32  version, {@link #VERSION}
+ *   4  int32  width
+ *   8  int32  height
+ *  12  int32  format, an android.graphics.ImageFormat value
+ *  16  int64  timestamp, in nanoseconds
+ *  24  int64  sequence number
+ *  32  int32  plane count
+ *  36  int32  reserved
+ * </pre>
+ *
+ * followed by {@link #PLANE_HEADER_SIZE} bytes per plane: {@code int32} bytes per row, bytes per
+ * pixel, offset of the plane data from the start of the message, and its length. The plane data
+ * follows the plane headers, one plane after the other.
+ */
+final class PackedImageFormat {
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 40;
+    static final int PLANE_HEADER_SIZE = 16;
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private PackedImageFormat() {
+    }
+
+    /** Returns the offset of the first plane's data. */
+    static int getDataOffset(int planeCount) {
+        return HEADER_SIZE + planeCount * PLANE_HEADER_SIZE;
+    }
+
+    static void writeHeader(
+            ByteBuffer out, int width, int height, int format, long timestamp,
+            long sequenceNumber, int planeCount) {
+        out.putInt(0, VERSION);
+        out.putInt(4, width);
+        out.putInt(8, height);
+        out.putInt(12, format);
+        out.putLong(16, timestamp);
+        out.putLong(24, sequenceNumber);
+        out.putInt(32, planeCount);
+        out.putInt(36, 0);
+    }
+
+    static void writePlaneHeader(
+            ByteBuffer out, int index, int rowStride, int pixelStride, int offset, int length) {
+        int position = HEADER_SIZE + index * PLANE_HEADER_SIZE;
+        out.putInt(position, rowStride);
+        out.putInt(position + 4, pixelStride);
+        out.putInt(position + 8, offset);
+        out.putInt(position + 12, length);
+    }
+}
@@ -0,0 +1,126 @@
+package io.flutter.plugins.camera.common;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link FrameAnalyzer} registered with {@link CameraSource}, together with its callback.
+ *
+ * <p>With ordered delivery, results are buffered in a small window keyed by the frame's take index,
+ * its position in the order frames were taken for processing, and handed to the callback in that
+ * order by whichever worker completes the oldest outstanding frame. A worker that gets too far
+ * ahead of the oldest frame waits for it, so the window never overflows. The worker holding the
+ * oldest frame never waits.
+ */
+final class AnalyzerRegistration<T> {
+    private static final String TAG = "MIDemoApp:Analyzer";
+
+    final FrameAnalyzer<T> analyzer;
+    private final FrameAnalyzer.ResultCallback<T> callback;
+    private final boolean inOrder;
+
+    // The fields below are guarded by this and only used for ordered delivery.
+    private final Object[] window;
+    private final long[] sequenceNumbers;
+    private final boolean[] completed;
+    private long nextTakeIndex;
+
+    /**
+     * @param firstTakeIndex the take index of the first frame this analyzer runs on, the next one
+     *                       to be handed out when it is registered
+     */
+    AnalyzerRegistration(
+            FrameAnalyzer<T> analyzer,
+            FrameAnalyzer.ResultCallback<T> callback,
+            boolean inOrder,
+            int windowSize,
+            long firstTakeIndex) {
+        this.analyzer = analyzer;
+        this.callback = callback;
+        this.inOrder = inOrder;
+        nextTakeIndex = firstTakeIndex;
+        window = new Object[inOrder ? windowSize : 0];
+        sequenceNumbers = new long[window.length];
+        completed = new boolean[window.length];
+    }
+
+    /**
+     * Runs the analyzer on a frame and delivers its result. Must be called exactly once for every
+     * take index from the first one on, even if the frame is skipped, so that ordered delivery can
+     * move past it. Earlier take indices are ignored.
+     *
+     * @param data null to skip the analyzer for this frame
+     */
+    void run(long takeIndex, @Nullable ByteBuffer data, FrameMetadata frameMetadata) {
+        // Read now, the metadata is recycled with the frame.
+        long sequenceNumber = frameMetadata.getSequenceNumber();
+        T result = null;
+        if (data != null) {
+            try {
+                data.clear();
+                result = analyzer.analyze(data, frameMetadata);
+            } catch (Throwable t) {
+                Log.e(TAG, "Exception thrown from analyzer.", t);
+            }
+        }
+
+        if (!inOrder) {
+            deliver(sequenceNumber, result);
+        } else {
+            complete(takeIndex, sequenceNumber, result);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void complete(long takeIndex, long sequenceNumber, @Nullable T result) {
+        if (takeIndex < nextTakeIndex) {
+            // Taken before this analyzer was registered.
+            return;
+        }
+
+        while (takeIndex - nextTakeIndex >= window.length) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        int index = (int) (takeIndex % window.length);
+        window[index] = result;
+        sequenceNumbers[index] = sequenceNumber;
+        completed[index] = true;
+
+        boolean advanced = false;
+        while (true) {
+            int next = (int) (nextTakeIndex % window.length);
+            if (!completed[next]) {
+                break;
+            }
+            T nextResult = (T) window[next];
+            window[next] = null;
+            completed[next] = false;
+            deliver(sequenceNumbers[next], nextResult);
+            nextTakeIndex++;
+            advanced = true;
+        }
+        if (advanced) {
+            notifyAll();
+        }
+    }
+
+    private void deliver(long sequenceNumber, @Nullable T result) {
+        if (result == null) {
+            return;
+        }
+        try {
+            callback.onResult(sequenceNumber, result);
+        } catch (Throwable t) {
+            Log.e(TAG, "Exception thrown from result callback.", t);
+        }
+    }
+}
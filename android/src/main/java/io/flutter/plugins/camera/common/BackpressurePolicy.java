@@ -0,0 +1,104 @@
+package io.flutter.plugins.camera.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which preview frames {@link CameraSource} hands to its processors when they cannot keep
+ * up with the camera, and counts how many frames were processed and dropped as a result.
+ *
+ * <p>A dropped frame is returned to the camera without being processed. Create one policy per
+ * {@link CameraSource}; the counters are not reset when the camera is restarted.
+ */
+public final class BackpressurePolicy {
+    private final int queueCapacity;
+    private final boolean dropOldest;
+    private final int interval;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong processedCount = new AtomicLong();
+
+    // Only touched on the camera callback thread.
+    private int framesUntilAdmitted;
+
+    private BackpressurePolicy(int queueCapacity, boolean dropOldest, int interval) {
+        this.queueCapacity = queueCapacity;
+        this.dropOldest = dropOldest;
+        this.interval = interval;
+    }
+
+    /**
+     * Keeps only the most recent frame. A frame still waiting when a newer one arrives is dropped.
+     * This is the default policy and suits detectors that only care about the freshest image.
+     */
+    public static BackpressurePolicy latestOnly() {
+        return new BackpressurePolicy(1, true, 1);
+    }
+
+    /**
+     * Queues up to {@code capacity} frames and processes them in arrival order. Frames arriving
+     * while the queue is full are dropped, so the frames that are processed stay consecutive for as
+     * long as the processors keep up on average.
+     */
+    public static BackpressurePolicy boundedFifo(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        return new BackpressurePolicy(capacity, false, 1);
+    }
+
+    /**
+     * Admits only every {@code interval}-th frame from the camera and drops the others immediately.
+     * Admitted frames are then handled like {@link #latestOnly()}.
+     */
+    public static BackpressurePolicy decimate(int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("Invalid interval: " + interval);
+        }
+        return new BackpressurePolicy(1, true, interval);
+    }
+
+    /** Returns how many frames were returned to the camera without being processed. */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /** Returns how many frames were handed to the processors. */
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /** Maximum number of frames waiting for processing. */
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Whether a full queue makes room for a new frame by dropping its oldest frame, rather than
+     * dropping the new one.
+     */
+    boolean dropsOldest() {
+        return dropOldest;
+    }
+
+    /**
+     * Decides whether a frame that just arrived from the camera may be queued. Frames that are not
+     * admitted are counted as dropped. Must be called on the camera callback thread.
+     */
+    boolean admit() {
+        if (framesUntilAdmitted > 0) {
+            framesUntilAdmitted--;
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        framesUntilAdmitted = interval - 1;
+        return true;
+    }
+
+    void onDropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    void onProcessed() {
+        processedCount.incrementAndGet();
+    }
+}
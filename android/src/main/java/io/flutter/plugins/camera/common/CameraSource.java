@@ -19,10 +19,14 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Rect;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.Parameters;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.util.Size;
 import android.view.Surface;
@@ -30,14 +34,18 @@ import android.view.WindowManager;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresPermission;
+import androidx.annotation.VisibleForTesting;
 
 import java.io.IOException;
 import java.lang.Thread.State;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Manages the camera and allows UI updates on top of it (e.g. overlaying extra Graphics or
@@ -54,6 +62,24 @@ public class CameraSource {
 
     private static final String TAG = "MIDemoApp:CameraSource";
 
+    /**
+     * How preview frames are handed from the camera callback thread to the processing thread. Which
+     * frames are kept is decided by the {@link BackpressurePolicy} in both modes.
+     */
+    public enum FrameHandoff {
+        /**
+         * The camera thread and the processing thread share a monitor, and the processing thread
+         * waits on it for the next frame.
+         */
+        MONITOR,
+
+        /**
+         * Frames are exchanged through atomic slots and the processing thread is parked while idle.
+         * The camera callback thread never blocks, and a replaced pending frame is recycled at once.
+         */
+        LOCK_FREE,
+    }
+
     /**
      * The dummy surface texture must be assigned a chosen name. Since we never use an OpenGL context,
      * we can choose any ID we want here. The dummy surface texture is not a crazy hack - it is
@@ -67,6 +93,10 @@ public class CameraSource {
      */
     private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    /** Default bounds of the preview buffer pool; see the comment in createCamera(). */
+    private static final int DEFAULT_MIN_PREVIEW_BUFFERS = 2;
+    private static final int DEFAULT_MAX_PREVIEW_BUFFERS = 6;
+
     protected Activity activity;
 
     private Camera camera;
@@ -81,12 +111,43 @@ public class CameraSource {
 
     private Size previewSize;
 
+    /** Whether processors receive frames turned upright, see {@link #setUprightFrames(boolean)}. */
+    private volatile boolean uprightFrames;
+
+    @Nullable
+    private volatile MotionGate motionGate;
+
+    /** Sample step of the frame statistics, or 0 if they are disabled. */
+    private volatile int frameStatisticsSampleStep;
+
+    /** Sample step of the statistics computed for a pending sharp capture. */
+    private static final int SHARP_CAPTURE_SAMPLE_STEP = 4;
+
+    /** Number of recent frames a sharpness peak has to beat. */
+    private static final int SHARP_CAPTURE_WINDOW = 5;
+
+    /** Capture waiting for a sharp frame, see {@link #takeSharpPhoto}. */
+    private final AtomicReference<SharpCapture> pendingSharpCapture = new AtomicReference<>();
+
+    /** Runs the timeouts of sharp captures. */
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /** Part of the frame handed to processors, see {@link #setRegionOfInterest(Rect)}. */
+    @Nullable
+    private volatile Rect regionOfInterest;
+
     // These values may be requested by the caller.  Due to hardware limitations, we may need to
     // select close, but not exactly the same values for these.
     private final float requestedFps = 20.0f;
     private final int requestedPreviewWidth = 1280;
     private final int requestedPreviewHeight = 960;
     private final boolean requestedAutoFocus = true;
+    private int minPreviewBuffers = DEFAULT_MIN_PREVIEW_BUFFERS;
+    private int maxPreviewBuffers = DEFAULT_MAX_PREVIEW_BUFFERS;
+    private int maxPictureEdge;
+    private int jpegQuality;
+    @Nullable
+    private Size pictureSize;
 
     // These instances need to be held onto to avoid GC of their underlying resources.  Even though
     // these aren't used outside of the method that creates them, they still must have hard
@@ -102,31 +163,94 @@ public class CameraSource {
     private boolean usingSurfaceTexture;
 
     /**
-     * Dedicated thread and associated runnable for calling into the detector with frames, as the
-     * frames become available from the camera.
+     * Dedicated threads and associated runnable for calling into the detector with frames, as the
+     * frames become available from the camera. There is one thread unless more workers are
+     * requested with {@link #setProcessingWorkers(int, ThreadFactory)}.
+     */
+    @Nullable
+    private Thread[] processingThreads;
+
+    private int processingWorkerCount = 1;
+
+    private ThreadFactory processingThreadFactory = DEFAULT_PROCESSING_THREAD_FACTORY;
+
+    private static final ThreadFactory DEFAULT_PROCESSING_THREAD_FACTORY = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, "CameraSource-processing-" + count.incrementAndGet());
+        }
+    };
+
+    /**
+     * Serializes taking frames from the queue across processing workers, so that take indices
+     * follow the order in which frames leave the queue.
+     */
+    private final Object takeLock = new Object();
+
+    /**
+     * Guards {@link #nextTakeIndex}, apart from {@link #takeLock} because a worker holds that one
+     * while it waits for a frame. Analyzers are registered under it, so that every take index from
+     * the first one they are given on sees them in {@link #frameAnalyzers}.
      */
-    private Thread processingThread;
+    private final Object takeIndexLock = new Object();
+
+    // Guarded by takeIndexLock.
+    private long nextTakeIndex;
 
     private final FrameProcessingRunnable processingRunnable;
 
+    private final FrameHandoff frameHandoff;
+
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.latestOnly();
+
+    /** Frames waiting for the processing thread. Replaced on every camera start. */
+    @Nullable
+    private volatile FrameQueue frameQueue;
+
     private final Object processorLock = new Object();
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte buffer.
-     * We use byte buffers internally because this is a more efficient way to call into native code
-     * later (avoids a potential copy).
-     *
-     * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
-     * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
-     * identity ('==') check on the keys.
+     * Processors that receive every frame picked up by the processing thread. Copy-on-write so that
+     * registration from the UI thread never blocks the processing thread.
+     */
+    private final List<ProcessorRegistration> frameProcessors = new CopyOnWriteArrayList<>();
+
+    /** Analyzers run on the processing workers after the inline processors. */
+    private final List<AnalyzerRegistration<?>> frameAnalyzers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Guards handing buffers back to the camera from consumer threads against the camera being
+     * released by {@link #stop()}.
+     */
+    private final Object recycleLock = new Object();
+
+    /**
+     * Owns the buffers lent to the camera and maps each byte array received from the camera back to
+     * its associated byte buffer. We use byte buffers internally because this is a more efficient way
+     * to call into native code later (avoids a potential copy). Replaced on every camera start.
      */
-    private final Map<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
+    @Nullable
+    private volatile PreviewBufferPool previewBufferPool;
 
     //  public CameraSource(Activity activity, GraphicOverlay overlay) {
     public CameraSource(Activity activity) {
+        this(activity, FrameHandoff.MONITOR);
+    }
+
+    /**
+     * Creates a camera source that hands preview frames to the processing thread using the given
+     * {@link FrameHandoff} mode.
+     */
+    public CameraSource(Activity activity, FrameHandoff frameHandoff) {
+        if (frameHandoff == null) {
+            throw new IllegalArgumentException("frameHandoff == null");
+        }
         this.activity = activity;
 //    graphicOverlay = overlay;
 //    graphicOverlay.clear();
+        this.frameHandoff = frameHandoff;
         processingRunnable = new FrameProcessingRunnable();
     }
 
@@ -146,6 +270,187 @@ public class CameraSource {
         }
     }
 
+    /**
+     * Registers a processor to be called with each preview frame on the processing thread. The
+     * frame is passed without copying and is returned to the camera once all processors return.
+     */
+    public void addFrameProcessor(FrameProcessor processor) {
+        addFrameProcessor(processor, null);
+    }
+
+    /**
+     * Registers a processor to be called with each preview frame on the given executor, in parallel
+     * with the processing thread and with other processors. The frame is not copied; the processor
+     * gets its own view of the pooled buffer and holds a lease on it until it returns. The buffer
+     * is returned to the camera once the last lease on it is released.
+     *
+     * @param executor executor to run the processor on, or null to run it on the processing thread
+     */
+    public void addFrameProcessor(FrameProcessor processor, @Nullable Executor executor) {
+        addFrameProcessor(processor, executor, 0);
+    }
+
+    /**
+     * Registers a processor like {@link #addFrameProcessor(FrameProcessor, Executor)}, with
+     * capability flags.
+     *
+     * @param flags a combination of {@code FrameProcessor.FLAG_} constants, e.g. {@link
+     *              FrameProcessor#FLAG_LUMA_ONLY}
+     */
+    public void addFrameProcessor(
+            FrameProcessor processor, @Nullable Executor executor, int flags) {
+        if (processor == null) {
+            throw new IllegalArgumentException("processor == null");
+        }
+        frameProcessors.add(new ProcessorRegistration(processor, executor, flags));
+    }
+
+    /**
+     * Unregisters a processor added with {@link #addFrameProcessor(FrameProcessor)}. A frame that is
+     * already being processed may still be delivered to it.
+     */
+    public void removeFrameProcessor(FrameProcessor processor) {
+        for (ProcessorRegistration registration : frameProcessors) {
+            if (registration.processor == processor) {
+                frameProcessors.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Sets which frames are processed when the processors cannot keep up with the camera. Takes
+     * effect on the next {@link #start()}. Defaults to {@link BackpressurePolicy#latestOnly()}.
+     */
+    public synchronized void setBackpressurePolicy(BackpressurePolicy policy) {
+        if (policy == null) {
+            throw new IllegalArgumentException("policy == null");
+        }
+        backpressurePolicy = policy;
+    }
+
+    /** Returns the backpressure policy, whose counters report processed and dropped frames. */
+    public synchronized BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * Registers an analyzer to be run on each processed frame, on the processing workers. Its
+     * non-null results are passed to {@code callback} on the worker that completes them.
+     *
+     * @param inOrder whether results must be delivered in the order the frames were taken for
+     *                processing. This only matters with more than one processing worker, where a
+     *                later frame may finish first; its result is then held back until the earlier
+     *                frames are done.
+     */
+    public <T> void addFrameAnalyzer(
+            FrameAnalyzer<T> analyzer, FrameAnalyzer.ResultCallback<T> callback, boolean inOrder) {
+        if (analyzer == null || callback == null) {
+            throw new IllegalArgumentException("analyzer and callback must not be null");
+        }
+        // Every worker holds at most one undelivered frame, plus one it may have taken since.
+        int windowSize = 2 * Math.max(1, processingWorkerCount);
+        synchronized (takeIndexLock) {
+            frameAnalyzers.add(new AnalyzerRegistration<>(
+                    analyzer, callback, inOrder, windowSize, nextTakeIndex));
+        }
+    }
+
+    /** Unregisters an analyzer added with {@link #addFrameAnalyzer}. */
+    public void removeFrameAnalyzer(FrameAnalyzer<?> analyzer) {
+        for (AnalyzerRegistration<?> registration : frameAnalyzers) {
+            if (registration.analyzer == analyzer) {
+                frameAnalyzers.remove(registration);
+            }
+        }
+    }
+
+    /**
+     * Sets whether frames are turned upright before they are handed to processors and analyzers.
+     *
+     * <p>When enabled, each frame is rotated by the {@link FrameMetadata#getRotation() rotation}
+     * computed for the current display orientation, and front camera frames are also mirrored, so
+     * that they look like the preview on screen. The result is written to a second buffer of the
+     * frame's pool slot, and the metadata reports the transformed width and height with a rotation
+     * of 0. Detections on mirrored frames are already in display orientation and must not be
+     * mirrored again, e.g. by {@link GraphicOverlay}.
+     *
+     * <p>Disabled by default, in which case frames stay in sensor orientation. Takes effect with the
+     * next frame.
+     */
+    public void setUprightFrames(boolean uprightFrames) {
+        this.uprightFrames = uprightFrames;
+    }
+
+    /** Returns whether frames are turned upright, see {@link #setUprightFrames(boolean)}. */
+    public boolean isUprightFrames() {
+        return uprightFrames;
+    }
+
+    /**
+     * Restricts processing to a part of the preview, e.g. a scanning window. Each frame is cropped
+     * to the region before it is handed to processors and analyzers, which then only see the region
+     * and walk a much smaller buffer. The crop is copied into a buffer of the frame's pool slot.
+     *
+     * <p>The region is in the coordinates of the frames that processors would otherwise see, i.e.
+     * upright ones if {@link #setUprightFrames(boolean)} is enabled. Use {@link
+     * GraphicOverlay#toPreviewRect(android.graphics.RectF, boolean)} with {@link
+     * #isUprightFrames()} to map a rectangle on screen to these coordinates. The region
+     * is clipped to the frame and its edges are moved outwards to even coordinates, so that it
+     * does not split the frame's chroma samples. {@link FrameMetadata#getCropLeft()} and {@link
+     * FrameMetadata#getCropTop()} give the position of the cropped frame.
+     *
+     * @param regionOfInterest the region to process, or null to process whole frames
+     */
+    public void setRegionOfInterest(@Nullable Rect regionOfInterest) {
+        this.regionOfInterest = regionOfInterest == null ? null : new Rect(regionOfInterest);
+    }
+
+    /**
+     * Sets a gate that skips frames in which nothing moved since the last processed frame. Skipped
+     * frames are returned to the camera without running any processor or analyzer, or any of the
+     * upright and crop stages. The gate looks at the whole preview, whatever the region of
+     * interest. Takes effect with the next frame.
+     *
+     * @param motionGate the gate, whose counters report passed and skipped frames, or null to
+     *                   process every frame
+     */
+    public void setMotionGate(@Nullable MotionGate motionGate) {
+        this.motionGate = motionGate;
+    }
+
+    /**
+     * Enables luma statistics for every processed frame, computed once on the processing worker and
+     * attached to the frame's {@link FrameMetadata#getStatistics() metadata}, so that processors
+     * that need the histogram, mean, variance or sharpness don't each walk the frame. Takes effect
+     * with the next frame.
+     *
+     * @param sampleStep distance in pixels between the samples, in both directions, or 0 to disable
+     *                   the statistics
+     */
+    public void setFrameStatisticsSampleStep(int sampleStep) {
+        if (sampleStep < 0) {
+            throw new IllegalArgumentException("Invalid sample step: " + sampleStep);
+        }
+        frameStatisticsSampleStep = sampleStep;
+    }
+
+    /**
+     * Sets how many threads process frames in parallel, and how they are created. Each worker takes
+     * the next frame from the queue as soon as it is free, so CPU-bound processors can use several
+     * cores. Takes effect on the next {@link #start()}; analyzers should be added after this call.
+     *
+     * @param threadFactory creates the worker threads, e.g. to set their names and priorities, or
+     *                      null for the default
+     */
+    public synchronized void setProcessingWorkers(int count, @Nullable ThreadFactory threadFactory) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Invalid worker count: " + count);
+        }
+        processingWorkerCount = count;
+        processingThreadFactory =
+                threadFactory != null ? threadFactory : DEFAULT_PROCESSING_THREAD_FACTORY;
+    }
+
     public boolean cameraIsNull() {
         return camera == null;
     }
@@ -163,6 +468,7 @@ public class CameraSource {
             return this;
         }
 
+        frameQueue = FrameQueue.create(frameHandoff, backpressurePolicy);
         camera = createCamera();
         dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
         camera.setPreviewTexture(dummySurfaceTexture);
@@ -170,9 +476,7 @@ public class CameraSource {
         camera.startPreview();
 
 
-        processingThread = new Thread(processingRunnable);
-        processingRunnable.setActive(true);
-        processingThread.start();
+        startProcessingThreads();
         return this;
     }
 
@@ -189,18 +493,51 @@ public class CameraSource {
             return this;
         }
 
+        frameQueue = FrameQueue.create(frameHandoff, backpressurePolicy);
         camera = createCamera();
         camera.setPreviewTexture(surfaceHolder);
         camera.startPreview();
 
-        processingThread = new Thread(processingRunnable);
-        processingRunnable.setActive(true);
-        processingThread.start();
+        startProcessingThreads();
 
         usingSurfaceTexture = false;
         return this;
     }
 
+    /**
+     * Starts the processing workers on a full pool of {@code bufferCount} buffers, without opening
+     * a camera. Frames are then fed with {@link #onPreviewFrame(byte[])}.
+     */
+    @VisibleForTesting
+    synchronized PreviewBufferPool startWithoutCamera(int bufferCount, int frameSize) {
+        frameQueue = FrameQueue.create(frameHandoff, backpressurePolicy);
+        PreviewBufferPool pool =
+                new PreviewBufferPool(bufferCount, bufferCount, frameSize, processingRunnable);
+        for (int i = 0; i < bufferCount; i++) {
+            pool.addSlot();
+        }
+        previewBufferPool = pool;
+        startProcessingThreads();
+        return pool;
+    }
+
+    /** Hands a frame to the processing workers as the camera's preview callback does. */
+    @VisibleForTesting
+    void onPreviewFrame(byte[] data) {
+        processingRunnable.setNextFrame(data, camera);
+    }
+
+    private void startProcessingThreads() {
+        processingThreads = new Thread[processingWorkerCount];
+        for (int i = 0; i < processingThreads.length; i++) {
+            processingThreads[i] = processingThreadFactory.newThread(processingRunnable);
+        }
+        processingRunnable.setActive(true);
+        for (Thread processingThread : processingThreads) {
+            processingThread.start();
+        }
+    }
+
     /**
      * Closes the camera and stops sending frames to the underlying frame detector.
      *
@@ -211,38 +548,51 @@ public class CameraSource {
      * resources of the underlying detector.
      */
     public synchronized void stop() {
+        SharpCapture cancelledCapture = pendingSharpCapture.getAndSet(null);
+        if (cancelledCapture != null) {
+            mainHandler.removeCallbacks(cancelledCapture);
+            activity.runOnUiThread(cancelledCapture.cancelCallback);
+        }
         processingRunnable.setActive(false);
-        if (processingThread != null) {
+        if (processingThreads != null) {
             try {
-                // Wait for the thread to complete to ensure that we can't have multiple threads
+                // Wait for the threads to complete to ensure that we can't have multiple threads
                 // executing at the same time (i.e., which would happen if we called start too
                 // quickly after stop).
-                processingThread.join();
+                for (Thread processingThread : processingThreads) {
+                    processingThread.join();
+                }
             } catch (InterruptedException e) {
                 Log.d(TAG, "Frame processing thread interrupted on release.");
             }
-            processingThread = null;
+            processingThreads = null;
         }
 
-        if (camera != null) {
-            camera.stopPreview();
-            camera.setPreviewCallbackWithBuffer(null);
-            try {
-                if (usingSurfaceTexture) {
-                    camera.setPreviewTexture(null);
-                } else {
-                    camera.setPreviewDisplay(null);
+        // Processors running on other executors may still hold leases, and must not hand their
+        // buffers back to a released camera.
+        synchronized (recycleLock) {
+            if (camera != null) {
+                camera.stopPreview();
+                camera.setPreviewCallbackWithBuffer(null);
+                try {
+                    if (usingSurfaceTexture) {
+                        camera.setPreviewTexture(null);
+                    } else {
+                        camera.setPreviewDisplay(null);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to clear camera preview: " + e);
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Failed to clear camera preview: " + e);
+                Log.d(TAG, "stop: camera");
+                camera.release();
+                camera = null;
             }
-            Log.d(TAG, "stop: camera");
-            camera.release();
-            camera = null;
-        }
 
-        // Release the reference to any image buffers, since these will no longer be in use.
-        bytesToByteBuffer.clear();
+            // Release the reference to any image buffers, since these will no longer be in use.
+            if (previewBufferPool != null) {
+                previewBufferPool.clear();
+            }
+        }
     }
 
     /**
@@ -255,6 +605,54 @@ public class CameraSource {
         this.facing = facing;
     }
 
+    /**
+     * Sets how many preview buffers the camera may use. The pool starts at {@code min} buffers and
+     * grows up to {@code max} when the camera runs out of buffers to fill. Takes effect on the next
+     * {@link #start()}.
+     */
+    public synchronized void setPreviewBufferBounds(int min, int max) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Invalid preview buffer bounds: " + min + ".." + max);
+        }
+        minPreviewBuffers = min;
+        maxPreviewBuffers = max;
+    }
+
+    /**
+     * Sets the longer edge the photos will be scaled down to, so that the camera takes them at
+     * the smallest supported size that reaches it instead of at full resolution. A photo taken at
+     * exactly that size needs no decoding and re-encoding at all. Takes effect on the next {@link
+     * #start()}.
+     *
+     * @param maxEdge the longer edge in pixels, or 0 to take photos at the highest resolution
+     */
+    public synchronized void setMaxPictureEdge(int maxEdge) {
+        if (maxEdge < 0) {
+            throw new IllegalArgumentException("Invalid picture edge: " + maxEdge);
+        }
+        maxPictureEdge = maxEdge;
+    }
+
+    /**
+     * Sets the quality of the JPEG photos, from 1 to 100, or 0 for the camera's default. Takes
+     * effect on the next {@link #start()}.
+     */
+    public synchronized void setJpegQuality(int quality) {
+        if (quality < 0 || quality > 100) {
+            throw new IllegalArgumentException("Invalid JPEG quality: " + quality);
+        }
+        jpegQuality = quality;
+    }
+
+    /**
+     * Returns the picture size that is currently in use by the underlying camera, or null if the
+     * camera kept its default.
+     */
+    @Nullable
+    public Size getPictureSize() {
+        return pictureSize;
+    }
+
     /**
      * Returns the preview size that is currently in use by the underlying camera.
      */
@@ -308,11 +706,12 @@ public class CameraSource {
         }
         Camera camera = Camera.open(requestedCameraId);
 
-        SizePair sizePair = selectSizePair(camera, requestedPreviewWidth, requestedPreviewHeight);
+        SizePair sizePair = selectSizePair(
+                camera, requestedPreviewWidth, requestedPreviewHeight, maxPictureEdge);
         if (sizePair == null) {
             throw new IOException("Could not find suitable preview size.");
         }
-        Size pictureSize = sizePair.pictureSize();
+        pictureSize = sizePair.pictureSize();
         previewSize = sizePair.previewSize();
 
         int[] previewFpsRange = selectPreviewFpsRange(camera, requestedFps);
@@ -330,6 +729,9 @@ public class CameraSource {
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
                 previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
         parameters.setPreviewFormat(ImageFormat.NV21);
+        if (jpegQuality > 0) {
+            parameters.setJpegQuality(jpegQuality);
+        }
 
         setRotation(camera, parameters, requestedCameraId);
 
@@ -345,22 +747,25 @@ public class CameraSource {
 
         camera.setParameters(parameters);
 
-        // Four frame buffers are needed for working with the camera:
+        // Frame buffers are needed for:
         //
-        //   one for the frame that is currently being executed upon in doing detection
-        //   one for the next pending frame to process immediately upon completing detection
-        //   two for the frames that the camera uses to populate future preview images
+        //   the frame that is currently being executed upon in doing detection
+        //   the next pending frame to process immediately upon completing detection
+        //   the frames that the camera uses to populate future preview images
         //
-        // Through trial and error it appears that two free buffers, in addition to the two buffers
-        // used in this code, are needed for the camera to work properly.  Perhaps the camera has
-        // one thread for acquiring images, and another thread for calling into user code.  If only
-        // three buffers are used, then the camera will spew thousands of warning messages when
-        // detection takes a non-trivial amount of time.
+        // How many free buffers the camera itself needs depends on the device and on how long
+        // detection takes; if it runs dry, the camera will spew warning messages and drop frames.
+        // So start with the minimum and let the pool grow whenever the camera is left without a
+        // buffer, and shrink again once spare buffers sit unused (see PreviewBufferPool). At high
+        // preview resolutions each buffer is several megabytes.
+        PreviewBufferPool pool = new PreviewBufferPool(
+                minPreviewBuffers, maxPreviewBuffers, getPreviewBufferSize(previewSize),
+                processingRunnable);
+        previewBufferPool = pool;
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+        for (int i = 0; i < minPreviewBuffers; i++) {
+            addPreviewBuffer(camera, pool);
+        }
 
         return camera;
     }
@@ -393,10 +798,12 @@ public class CameraSource {
      * @param camera        the camera to select a preview size from
      * @param desiredWidth  the desired width of the camera preview frames
      * @param desiredHeight the desired height of the camera preview frames
+     * @param maxPictureEdge see {@link #setMaxPictureEdge(int)}
      * @return the selected preview and picture size pair
      */
-    private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
+    private static SizePair selectSizePair(
+            Camera camera, int desiredWidth, int desiredHeight, int maxPictureEdge) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera, maxPictureEdge);
 
         // The method for selecting the best size is to minimize the sum of the differences between
         // the desired values and the actual values for width and height.  This is certainly not the
@@ -429,11 +836,9 @@ public class CameraSource {
 
         SizePair(
                 Camera.Size previewSize,
-                @Nullable Camera.Size pictureSize) {
+                @Nullable Size pictureSize) {
             preview = new Size(previewSize.width, previewSize.height);
-            if (pictureSize != null) {
-                picture = new Size(pictureSize.width, pictureSize.height);
-            }
+            picture = pictureSize;
         }
 
         Size previewSize() {
@@ -455,25 +860,26 @@ public class CameraSource {
      * be set to a size that is the same aspect ratio as the preview size we choose. Otherwise, the
      * preview images may be distorted on some devices.
      */
-    private static List<SizePair> generateValidPreviewSizeList(Camera camera) {
+    private static List<SizePair> generateValidPreviewSizeList(
+            Camera camera, int maxPictureEdge) {
         Camera.Parameters parameters = camera.getParameters();
         List<Camera.Size> supportedPreviewSizes =
                 parameters.getSupportedPreviewSizes();
-        List<Camera.Size> supportedPictureSizes =
-                parameters.getSupportedPictureSizes();
+        List<Camera.Size> supportedPictureSizes = parameters.getSupportedPictureSizes();
+        int[] pictureWidths = new int[supportedPictureSizes.size()];
+        int[] pictureHeights = new int[supportedPictureSizes.size()];
+        for (int i = 0; i < pictureWidths.length; i++) {
+            pictureWidths[i] = supportedPictureSizes.get(i).width;
+            pictureHeights[i] = supportedPictureSizes.get(i).height;
+        }
         List<SizePair> validPreviewSizes = new ArrayList<>();
         for (Camera.Size previewSize : supportedPreviewSizes) {
             float previewAspectRatio = (float) previewSize.width / (float) previewSize.height;
-
-            // By looping through the picture sizes in order, we favor the higher resolutions.
-            // We choose the highest resolution in order to support taking the full resolution
-            // picture later.
-            for (Camera.Size pictureSize : supportedPictureSizes) {
-                float pictureAspectRatio = (float) pictureSize.width / (float) pictureSize.height;
-                if (Math.abs(previewAspectRatio - pictureAspectRatio) < ASPECT_RATIO_TOLERANCE) {
-                    validPreviewSizes.add(new SizePair(previewSize, pictureSize));
-                    break;
-                }
+            int picture = selectPictureSize(
+                    pictureWidths, pictureHeights, previewAspectRatio, maxPictureEdge);
+            if (picture >= 0) {
+                validPreviewSizes.add(new SizePair(
+                        previewSize, new Size(pictureWidths[picture], pictureHeights[picture])));
             }
         }
 
@@ -491,6 +897,38 @@ public class CameraSource {
         return validPreviewSizes;
     }
 
+    /**
+     * Selects a picture size with the given aspect ratio from the sizes given by {@code widths} and
+     * {@code heights}, and returns its index, or -1 if there is none.
+     *
+     * <p>Without a maximum edge, this is the first such size in the camera's list. Cameras list
+     * their sizes from the highest resolution down, so this supports taking full resolution
+     * pictures. With a maximum edge, it is the smallest size whose longer edge reaches it, or the
+     * largest size if none does.
+     */
+    static int selectPictureSize(int[] widths, int[] heights, float aspectRatio, int maxEdge) {
+        int smallestAbove = -1;
+        int largest = -1;
+        for (int i = 0; i < widths.length; i++) {
+            float pictureAspectRatio = (float) widths[i] / (float) heights[i];
+            if (Math.abs(aspectRatio - pictureAspectRatio) >= ASPECT_RATIO_TOLERANCE) {
+                continue;
+            }
+            if (maxEdge == 0) {
+                return i;
+            }
+            int edge = Math.max(widths[i], heights[i]);
+            if (edge >= maxEdge && (smallestAbove < 0
+                    || edge < Math.max(widths[smallestAbove], heights[smallestAbove]))) {
+                smallestAbove = i;
+            }
+            if (largest < 0 || edge > Math.max(widths[largest], heights[largest])) {
+                largest = i;
+            }
+        }
+        return smallestAbove >= 0 ? smallestAbove : largest;
+    }
+
     /**
      * Selects the most suitable preview frames per second range, given the desired frames per second.
      *
@@ -573,29 +1011,39 @@ public class CameraSource {
     }
 
     /**
-     * Creates one buffer for the camera preview callback. The size of the buffer is based off of the
-     * camera preview size and the format of the camera image.
+     * Computes the size of one buffer for the camera preview callback. The size of the buffer is
+     * based off of the camera preview size and the format of the camera image.
      *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * @return the minimum preview buffer size for the current camera settings
      */
     @SuppressLint("InlinedApi")
-    private byte[] createPreviewBuffer(Size previewSize) {
+    private static int getPreviewBufferSize(Size previewSize) {
         int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
         long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
+        return (int) Math.ceil(sizeInBits / 8.0d) + 1;
+    }
 
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+    /**
+     * Allocates one more preview buffer and hands it to the camera.
+     *
+     * @return false if the pool is already full
+     */
+    private static boolean addPreviewBuffer(Camera camera, PreviewBufferPool pool) {
+        int slot = pool.addSlot();
+        if (slot == PreviewBufferPool.NO_SLOT) {
+            return false;
         }
+        camera.addCallbackBuffer(pool.lendToCamera(slot));
+        return true;
+    }
 
-        bytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+    /**
+     * Returns the preview buffer pool of the current camera, or null if the camera has not been
+     * started yet. Its state counters can be used to size the pool.
+     */
+    @Nullable
+    public PreviewBufferPool getPreviewBufferPool() {
+        return previewBufferPool;
     }
 
     // ==============================================================================================
@@ -619,18 +1067,20 @@ public class CameraSource {
      * (i.e., without unnecessary context switching or waiting on the next frame).
      *
      * <p>While detection is running on a frame, new frames may be received from the camera. As these
-     * frames come in, the most recent frame is held onto as pending. As soon as detection and its
-     * associated processing is done for the previous frame, detection on the mostly recently received
-     * frame will immediately start on the same thread.
+     * frames come in, they are held in the {@link FrameQueue} as pending, or dropped, according to
+     * the {@link BackpressurePolicy}. By default only the most recent frame is kept. As soon as
+     * detection and its associated processing is done for the previous frame, detection on the next
+     * pending frame will immediately start on the same thread.
+     *
+     * <p>Frames are tracked by their {@link PreviewBufferPool} slot. While a frame is processed its
+     * slot's {@link FrameLease} is held by the processing thread and by every processor running on
+     * another executor, and the frame goes back to the camera when the last of them releases it.
      */
-    private class FrameProcessingRunnable implements Runnable {
-
-        // This lock guards all of the member variables below.
-        private final Object lock = new Object();
-        private boolean active = true;
+    private class FrameProcessingRunnable implements Runnable, FrameLease.Recycler {
 
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private ByteBuffer pendingFrameData;
+        // Only touched on the camera callback thread. Counts every frame received, so that
+        // frames keep increasing numbers across camera restarts.
+        private long nextFrameSequenceNumber;
 
         FrameProcessingRunnable() {
         }
@@ -641,42 +1091,80 @@ public class CameraSource {
          */
         @SuppressLint("Assert")
         void release() {
-            assert (processingThread.getState() == State.TERMINATED);
+            if (processingThreads != null) {
+                for (Thread processingThread : processingThreads) {
+                    assert (processingThread.getState() == State.TERMINATED);
+                }
+            }
         }
 
         /**
          * Marks the runnable as active/not active. Signals any blocked threads to continue.
          */
         void setActive(boolean active) {
-            synchronized (lock) {
-                this.active = active;
-                lock.notifyAll();
+            FrameQueue queue = frameQueue;
+            if (queue != null) {
+                queue.setActive(active);
             }
         }
 
         /**
-         * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
-         * present) back to the camera, and keeps a pending reference to the frame data for future use.
+         * Sets the frame data received from the camera. This queues the frame for future use, and
+         * adds any frame dropped by the backpressure policy back to the camera.
          */
         void setNextFrame(byte[] data, Camera camera) {
-            synchronized (lock) {
-                if (pendingFrameData != null) {
-                    camera.addCallbackBuffer(pendingFrameData.array());
-                    pendingFrameData = null;
-                }
+            PreviewBufferPool pool = previewBufferPool;
+            FrameQueue queue = frameQueue;
+            int slot = pool == null ? PreviewBufferPool.NO_SLOT : pool.slotOf(data);
+            if (slot == PreviewBufferPool.NO_SLOT || queue == null) {
+                Log.d(
+                        TAG,
+                        "Skipping frame. Could not find ByteBuffer associated with the image "
+                                + "data from the camera.");
+                return;
+            }
 
-                if (!bytesToByteBuffer.containsKey(data)) {
-                    Log.d(
-                            TAG,
-                            "Skipping frame. Could not find ByteBuffer associated with the image "
-                                    + "data from the camera.");
-                    return;
+            long sequenceNumber = nextFrameSequenceNumber++;
+            BackpressurePolicy policy = queue.getPolicy();
+            if (policy.admit()) {
+                // Nobody else holds the slot's metadata until the frame is taken from the queue.
+                pool.lease(slot).getFrameMetadata()
+                        .setReceived(sequenceNumber, SystemClock.elapsedRealtimeNanos());
+                pool.setState(slot, PreviewBufferPool.STATE_PENDING);
+                int dropped = queue.offer(slot);
+                if (dropped != PreviewBufferPool.NO_SLOT) {
+                    policy.onDropped();
+                    recycle(dropped, camera, pool);
                 }
+            } else {
+                recycle(slot, camera, pool);
+            }
 
-                pendingFrameData = bytesToByteBuffer.get(data);
+            if (pool.onFrameHandedOff()) {
+                addPreviewBuffer(camera, pool);
+            }
+        }
 
-                // Notify the processor thread if it is waiting on the next frame (see below).
-                lock.notifyAll();
+        /**
+         * Hands a slot's buffer back to the camera, unless the pool retires the slot to shrink.
+         */
+        private void recycle(int slot, Camera camera, PreviewBufferPool pool) {
+            if (!pool.retireIfShrinking(slot)) {
+                camera.addCallbackBuffer(pool.lendToCamera(slot));
+            }
+        }
+
+        /**
+         * Hands a fully released frame back to the camera. May run on the processing thread or on
+         * any processor's executor, possibly after the camera has been stopped.
+         */
+        @Override
+        public void recycle(FrameLease lease) {
+            synchronized (recycleLock) {
+                PreviewBufferPool pool = lease.getPool();
+                if (camera != null && pool == previewBufferPool && pool.owns(lease)) {
+                    recycle(lease.getSlot(), camera, pool);
+                }
             }
         }
 
@@ -692,58 +1180,185 @@ public class CameraSource {
          *
          * <p>If you find that this is using more CPU than you'd like, you should probably decrease the
          * FPS setting above to allow for some idle time in between frames.
+         *
+         * <p>Every processing worker runs this loop. Workers take frames one at a time under {@link
+         * #takeLock}, and each frame is given the next take index as it is taken, which analyzers
+         * use to deliver their results in order.
          */
         @SuppressLint("InlinedApi")
-        @SuppressWarnings("GuardedBy")
         @Override
         public void run() {
-            ByteBuffer data;
+            PreviewBufferPool pool = previewBufferPool;
+            FrameQueue queue = frameQueue;
+            BackpressurePolicy policy = queue.getPolicy();
 
             while (true) {
-                synchronized (lock) {
-                    while (active && (pendingFrameData == null)) {
-                        try {
-                            // Wait for the next frame to be received from the camera, since we
-                            // don't have it yet.
-                            lock.wait();
-                        } catch (InterruptedException e) {
-                            Log.d(TAG, "Frame processing loop terminated.", e);
-                            return;
-                        }
-                    }
-
-                    if (!active) {
-                        // Exit the loop once this camera source is stopped or released.  We check
-                        // this here, immediately after the wait() above, to handle the case where
-                        // setActive(false) had been called, triggering the termination of this
-                        // loop.
+                int slot;
+                long takeIndex;
+                synchronized (takeLock) {
+                    slot = queue.take();
+                    if (slot == PreviewBufferPool.NO_SLOT) {
+                        // Exiting workers take no index, or ordered analyzers would wait for it
+                        // forever after a restart.
                         return;
                     }
-
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear pendingFrameData to ensure that this buffer isn't
-                    // recycled back to the camera before we are done using that data.
-                    data = pendingFrameData;
-                    pendingFrameData = null;
+                    synchronized (takeIndexLock) {
+                        takeIndex = nextTakeIndex++;
+                    }
                 }
+                pool.setState(slot, PreviewBufferPool.STATE_PROCESSING);
+                policy.onProcessed();
+                FrameLease lease = pool.lease(slot);
+                lease.acquire();
 
                 // The code below needs to run outside of synchronization, because this will allow
                 // the camera to add pending frame(s) while we are running detection on the current
                 // frame.
 
+                // The receive fields were filled in on the camera thread, before the frame was
+                // queued.
+                FrameMetadata frameMetadata = lease.getFrameMetadata();
+                frameMetadata.setProcessingStartNanos(SystemClock.elapsedRealtimeNanos());
+                ByteBuffer data = null;
                 try {
-//          synchronized (processorLock) {
-//
-//          }
+                    // Gate on the camera buffer, so that skipped frames don't pay for the other
+                    // stages either.
+                    MotionGate gate = motionGate;
+                    if (gate != null && !gate.shouldProcess(
+                            lease.getData(), previewSize.getWidth(), previewSize.getHeight())) {
+                        // The finally block below still releases the frame.
+                        continue;
+                    }
+                    data = prepareFrame(lease, frameMetadata);
+                    checkSharpCapture(frameMetadata);
+
+                    // Start the processors on other executors first, so that they run alongside
+                    // the inline ones.
+                    for (ProcessorRegistration registration : frameProcessors) {
+                        if (registration.executor != null) {
+                            registration.dispatch(lease, frameMetadata);
+                        }
+                    }
+                    for (ProcessorRegistration registration : frameProcessors) {
+                        if (registration.executor == null) {
+                            // Processors share the buffer, so undo any position changes made by
+                            // the previous one.
+                            ByteBuffer view = registration.isLumaOnly()
+                                    ? lease.lumaView(frameMetadata)
+                                    : (ByteBuffer) data.clear();
+                            registration.processor.process(view, frameMetadata);
+                        }
+                    }
                 } catch (Throwable t) {
                     Log.e(TAG, "Exception thrown from receiver.", t);
                 } finally {
-                    camera.addCallbackBuffer(data.array());
+                    try {
+                        // Analyzers skip the frame if it was gated or could not be prepared.
+                        for (AnalyzerRegistration<?> registration : frameAnalyzers) {
+                            registration.run(takeIndex, data, frameMetadata);
+                        }
+                    } finally {
+                        lease.release();
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Selects the buffer that consumers see for a frame, turning the frame upright and cropping it
+     * to the region of interest first if requested, and fills in the frame's size, orientation and
+     * position to match. Also points the frame's pyramid at that buffer, and computes the frame's
+     * statistics if enabled.
+     */
+    private ByteBuffer prepareFrame(FrameLease lease, FrameMetadata frameMetadata) {
+        int width = previewSize.getWidth();
+        int height = previewSize.getHeight();
+        boolean mirror = facing == CAMERA_FACING_FRONT;
+        boolean transform = uprightFrames && (rotation != 0 || mirror);
+        int outputWidth = transform ? Nv21Transform.getOutputWidth(width, height, rotation) : width;
+        int outputHeight =
+                transform ? Nv21Transform.getOutputHeight(width, height, rotation) : height;
+
+        // Clip the region to the frame, and align it to the 2x2 blocks that share a VU pair.
+        int left = 0;
+        int top = 0;
+        int right = outputWidth;
+        int bottom = outputHeight;
+        Rect region = regionOfInterest;
+        if (region != null) {
+            left = Math.max(0, region.left) & ~1;
+            top = Math.max(0, region.top) & ~1;
+            right = (Math.min(outputWidth, region.right) + 1) & ~1;
+            bottom = (Math.min(outputHeight, region.bottom) + 1) & ~1;
+            if (left >= right || top >= bottom) {
+                // Nothing of the region is in the frame; process the whole frame rather than none.
+                left = 0;
+                top = 0;
+                right = outputWidth;
+                bottom = outputHeight;
+            }
+        }
+        boolean crop = right - left < outputWidth || bottom - top < outputHeight;
+        int frameSize = (right - left) * (bottom - top) * 3 / 2;
+        // Stages only copy the chroma plane if some consumer reads it.
+        boolean withChroma = needsChroma();
+
+        byte[] cameraData = lease.getData().array();
+        ByteBuffer frame;
+        if (crop && transform) {
+            // Crop first, so that only the region is transformed.
+            frame = lease.stageBuffer(FrameLease.STAGE_UPRIGHT, frameSize);
+            Nv21Transform.cropAndTransform(
+                    cameraData, width, height, rotation, mirror, left, top, right, bottom,
+                    lease.stageBuffer(FrameLease.STAGE_CROP, frameSize).array(), frame.array(),
+                    withChroma);
+        } else if (crop) {
+            frame = lease.stageBuffer(FrameLease.STAGE_CROP, frameSize);
+            Nv21Transform.crop(
+                    cameraData, width, height, left, top, right, bottom, frame.array(), withChroma);
+        } else if (transform) {
+            frame = lease.stageBuffer(FrameLease.STAGE_UPRIGHT, frameSize);
+            Nv21Transform.transform(
+                    cameraData, width, height, rotation, mirror, frame.array(), withChroma);
+        } else {
+            // The camera buffer always has its chroma.
+            withChroma = true;
+            frame = lease.getData();
+        }
+        lease.setFrame(frame);
+        frameMetadata.set(right - left, bottom - top, transform ? 0 : rotation, facing);
+        frameMetadata.setCrop(left, top);
+        // Levels are only computed if a consumer asks for them.
+        lease.getPyramid().reset(frame, right - left, bottom - top, withChroma);
+
+        int sampleStep = frameStatisticsSampleStep;
+        if (sampleStep == 0 && pendingSharpCapture.get() != null) {
+            sampleStep = SHARP_CAPTURE_SAMPLE_STEP;
+        }
+        if (sampleStep > 0) {
+            FrameStatistics statistics = lease.getStatistics();
+            statistics.compute(frame, right - left, bottom - top, sampleStep);
+            frameMetadata.setStatistics(statistics);
+        } else {
+            frameMetadata.setStatistics(null);
+        }
+        return frame;
+    }
+
+    /** Returns whether any consumer of the next frame reads its chroma plane. */
+    private boolean needsChroma() {
+        if (!frameAnalyzers.isEmpty()) {
+            return true;
+        }
+        for (ProcessorRegistration registration : frameProcessors) {
+            if (!registration.isLumaOnly()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Cleans up graphicOverlay and child classes can do their cleanups as well .
      */
@@ -757,4 +1372,101 @@ public class CameraSource {
             camera.takePicture(null, null, rawCallback);
         }
     }
+
+    /**
+     * Takes a photo once the preview is sharp, to avoid blurred shots from a moving camera. The
+     * sharpness of each processed preview frame is tracked, and the photo is taken on the first
+     * frame whose score reaches {@code threshold}, right after the score peaks, or once {@code
+     * timeoutMillis} have passed since this call, whichever comes first. See {@link
+     * FrameStatistics#getSharpness()} for the score.
+     *
+     * <p>Frames skipped by the {@link #setMotionGate(MotionGate) motion gate} are not scored, so a
+     * static scene fires on its next refresh at the latest. The timeout fires even if no frame
+     * comes in. Must be called on the main thread.
+     *
+     * @param threshold      score at which the photo is taken at once, or {@link
+     *                       Double#POSITIVE_INFINITY} to wait for a peak
+     * @param cancelCallback run on the main thread instead of {@code rawCallback} if the photo
+     *                       cannot be taken: right away if the camera is not running, or later
+     *                       if it is stopped or fails while the capture is still waiting
+     * @throws IllegalStateException if another sharp capture is still waiting
+     */
+    public void takeSharpPhoto(
+            double threshold, long timeoutMillis, Camera.PictureCallback rawCallback,
+            Runnable cancelCallback) {
+        synchronized (this) {
+            if (camera == null) {
+                cancelCallback.run();
+                return;
+            }
+        }
+        long deadlineNanos = SystemClock.elapsedRealtimeNanos() + timeoutMillis * 1_000_000L;
+        SharpCapture capture = new SharpCapture(
+                new SharpnessTrigger(threshold, SHARP_CAPTURE_WINDOW, deadlineNanos),
+                rawCallback, cancelCallback);
+        if (!pendingSharpCapture.compareAndSet(null, capture)) {
+            throw new IllegalStateException("A sharp capture is already waiting.");
+        }
+        mainHandler.postDelayed(capture, timeoutMillis);
+    }
+
+    /**
+     * Feeds a processed frame to the pending sharp capture, if any, and takes the photo on the
+     * main thread once the capture fires.
+     */
+    private void checkSharpCapture(FrameMetadata frameMetadata) {
+        final SharpCapture capture = pendingSharpCapture.get();
+        FrameStatistics statistics = frameMetadata.getStatistics();
+        if (capture == null || statistics == null) {
+            return;
+        }
+        if (capture.trigger.onFrame(
+                statistics.getSharpness(), frameMetadata.getReceiveTimestampNanos())
+                && pendingSharpCapture.compareAndSet(capture, null)) {
+            mainHandler.removeCallbacks(capture);
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    capture.takePhoto();
+                }
+            });
+        }
+    }
+
+    /** A capture waiting for a sharp frame, which runs as its own timeout on the main thread. */
+    private final class SharpCapture implements Runnable {
+        final SharpnessTrigger trigger;
+        final Camera.PictureCallback callback;
+        final Runnable cancelCallback;
+
+        SharpCapture(
+                SharpnessTrigger trigger, Camera.PictureCallback callback,
+                Runnable cancelCallback) {
+            this.trigger = trigger;
+            this.callback = callback;
+            this.cancelCallback = cancelCallback;
+        }
+
+        @Override
+        public void run() {
+            if (pendingSharpCapture.compareAndSet(this, null)) {
+                takePhoto();
+            }
+        }
+
+        /** Takes the photo on the main thread, or cancels the capture if that is not possible. */
+        void takePhoto() {
+            synchronized (CameraSource.this) {
+                if (camera != null) {
+                    try {
+                        camera.takePicture(null, null, callback);
+                        return;
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "Failed to take a sharp photo.", e);
+                    }
+                }
+            }
+            cancelCallback.run();
+        }
+    }
 }
@@ -0,0 +1,31 @@
+package io.flutter.plugins.camera.common;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link FrameProcessor} variant that produces a result per frame. Analyzers run on the
+ * processing workers of {@link CameraSource}, and their results are passed to a {@link
+ * ResultCallback}, optionally in the order the frames were taken for processing.
+ */
+public interface FrameAnalyzer<T> {
+
+    /**
+     * Analyzes one NV21 preview frame. The buffer is only valid until this method returns.
+     *
+     * @return the result for this frame, or null if there is nothing to report
+     */
+    @Nullable
+    T analyze(ByteBuffer data, FrameMetadata frameMetadata);
+
+    /** Receives analyzer results on the processing worker that completes them. */
+    interface ResultCallback<T> {
+
+        /**
+         * @param sequenceNumber the frame's {@link FrameMetadata#getSequenceNumber()}
+         * @param result         the analyzer's result, never null
+         */
+        void onResult(long sequenceNumber, T result);
+    }
+}
@@ -0,0 +1,148 @@
+package io.flutter.plugins.camera.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference count on one {@link PreviewBufferPool} slot while its frame is being processed.
+ *
+ * <p>The processing thread acquires the lease when it takes the frame, and takes one more
+ * reference for every consumer that reads the frame on another thread. Each holder releases its
+ * reference when it is done, and the buffer goes back to the camera when the last one is released.
+ * One lease object exists per slot and is reused for every frame that lands in that slot.
+ */
+final class FrameLease {
+
+    /** Stage buffer for frames turned upright. */
+    static final int STAGE_UPRIGHT = 0;
+    /** Stage buffer for frames cropped to the region of interest. */
+    static final int STAGE_CROP = 1;
+
+    private static final int STAGE_COUNT = 2;
+
+    /** Returns a fully released buffer to the camera. Called on the releasing thread. */
+    interface Recycler {
+        void recycle(FrameLease lease);
+    }
+
+    private final PreviewBufferPool pool;
+    private final int slot;
+    private final ByteBuffer data;
+    private final Recycler recycler;
+    private final AtomicInteger refCount = new AtomicInteger();
+    private final FrameMetadata frameMetadata = new FrameMetadata();
+    private final FramePyramid pyramid = new FramePyramid();
+    private final FrameStatistics statistics = new FrameStatistics();
+
+    // Only touched by the processing worker that holds the first reference.
+    private final ByteBuffer[] stageBuffers = new ByteBuffer[STAGE_COUNT];
+    private ByteBuffer frame;
+    private ByteBuffer lumaViewSource;
+    private ByteBuffer lumaView;
+
+    FrameLease(PreviewBufferPool pool, int slot, ByteBuffer data, Recycler recycler) {
+        this.pool = pool;
+        this.slot = slot;
+        this.data = data;
+        this.recycler = recycler;
+        frame = data;
+        frameMetadata.setPyramid(pyramid);
+    }
+
+    PreviewBufferPool getPool() {
+        return pool;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    /** Returns the pooled buffer. Shared by every holder, so only use absolute reads on it. */
+    ByteBuffer getData() {
+        return data;
+    }
+
+    /**
+     * Returns the buffer that consumers see for the current frame: the camera buffer itself, or
+     * one of the stage buffers. Shared by every holder, so only use absolute reads on it.
+     */
+    ByteBuffer getFrame() {
+        return frame;
+    }
+
+    /**
+     * Returns a read-only view of the luma plane of the current frame, for inline luma-only
+     * processors. The view is shared by them and only recreated when the frame buffer changes.
+     */
+    ByteBuffer lumaView(FrameMetadata frameMetadata) {
+        if (lumaViewSource != frame) {
+            lumaViewSource = frame;
+            lumaView = frame.asReadOnlyBuffer();
+        }
+        lumaView.clear();
+        lumaView.limit(frameMetadata.getWidth() * frameMetadata.getHeight());
+        return lumaView;
+    }
+
+    /** Sets the buffer that consumers see for the current frame. */
+    void setFrame(ByteBuffer frame) {
+        this.frame = frame;
+    }
+
+    /**
+     * Returns one of the slot's buffers for copies made by the pipeline stages, allocated the first
+     * time it is needed and kept for later frames.
+     *
+     * @param stage one of the {@code STAGE_} constants
+     */
+    ByteBuffer stageBuffer(int stage, int frameSize) {
+        ByteBuffer buffer = stageBuffers[stage];
+        if (buffer == null || buffer.capacity() < frameSize) {
+            buffer = ByteBuffer.wrap(new byte[frameSize]);
+            stageBuffers[stage] = buffer;
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns the metadata of the frame currently in the slot. It is filled in while the frame is
+     * pending, and shared by every holder like the buffer.
+     */
+    FrameMetadata getFrameMetadata() {
+        return frameMetadata;
+    }
+
+    /** Returns the downscale pyramid of the frame currently in the slot. */
+    FramePyramid getPyramid() {
+        return pyramid;
+    }
+
+    /** Returns the statistics of the frame currently in the slot, computed only if enabled. */
+    FrameStatistics getStatistics() {
+        return statistics;
+    }
+
+    /** Takes the first reference, for a frame that has just been taken from the queue. */
+    void acquire() {
+        if (!refCount.compareAndSet(0, 1)) {
+            throw new IllegalStateException("Frame lease already held: " + refCount.get());
+        }
+    }
+
+    /** Adds a reference for one more holder. Only valid while the lease is held. */
+    void retain() {
+        if (refCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Frame lease retained after release.");
+        }
+    }
+
+    /** Drops one reference, and recycles the buffer if it was the last one. */
+    void release() {
+        int remaining = refCount.decrementAndGet();
+        if (remaining == 0) {
+            recycler.recycle(this);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Frame lease released too often.");
+        }
+    }
+}
@@ -13,13 +13,28 @@
 // limitations under the License.
 package io.flutter.plugins.camera.common;
 
-/** Describing a frame info. */
+import androidx.annotation.Nullable;
+
+/**
+ * Describing a frame info.
+ *
+ * <p>Frames delivered by {@link CameraSource} share one metadata object per pooled buffer, which is
+ * refilled for every frame that lands in that buffer. Like the buffer itself, it is only valid
+ * until the receiver returns; use {@link #copy()} to keep it longer.
+ */
 public class FrameMetadata {
 
-  private final int width;
-  private final int height;
-  private final int rotation;
-  private final int cameraFacing;
+  private int width;
+  private int height;
+  private int rotation;
+  private int cameraFacing;
+  private long sequenceNumber;
+  private long receiveTimestampNanos;
+  private long processingStartNanos;
+  private int cropLeft;
+  private int cropTop;
+  @Nullable private FramePyramid pyramid;
+  @Nullable private FrameStatistics statistics;
 
   public int getWidth() {
     return width;
@@ -37,13 +52,100 @@ public class FrameMetadata {
     return cameraFacing;
   }
 
-  private FrameMetadata(int width, int height, int rotation, int facing) {
+  /**
+   * Returns the position of the frame among all frames received from the camera, including the
+   * ones that were dropped. Gaps between the sequence numbers of processed frames are drops.
+   */
+  public long getSequenceNumber() {
+    return sequenceNumber;
+  }
+
+  /** Returns when the frame was received from the camera, in {@code elapsedRealtimeNanos}. */
+  public long getReceiveTimestampNanos() {
+    return receiveTimestampNanos;
+  }
+
+  /** Returns when processing of the frame started, in {@code elapsedRealtimeNanos}. */
+  public long getProcessingStartNanos() {
+    return processingStartNanos;
+  }
+
+  /**
+   * Returns the x coordinate of the frame's left edge in the full preview frame. Non-zero when the
+   * frame was cropped to the {@link CameraSource#setRegionOfInterest region of interest}; add it
+   * to x coordinates found in the frame to get preview coordinates.
+   */
+  public int getCropLeft() {
+    return cropLeft;
+  }
+
+  /** Returns the y coordinate of the frame's top edge in the full preview frame. */
+  public int getCropTop() {
+    return cropTop;
+  }
+
+  /**
+   * Returns the downscaled levels of the frame, or null if the frame did not come from {@link
+   * CameraSource}. Like the frame, the pyramid is only valid until the receiver returns.
+   */
+  @Nullable
+  public FramePyramid getPyramid() {
+    return pyramid;
+  }
+
+  /**
+   * Returns the luma statistics of the frame, or null unless they were enabled with {@link
+   * CameraSource#setFrameStatisticsSampleStep(int)}. Only valid until the receiver returns.
+   */
+  @Nullable
+  public FrameStatistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * Returns a copy that is not recycled with the frame. The copy has no pyramid and no statistics.
+   */
+  public FrameMetadata copy() {
+    FrameMetadata copy = new FrameMetadata();
+    copy.set(width, height, rotation, cameraFacing);
+    copy.setReceived(sequenceNumber, receiveTimestampNanos);
+    copy.setProcessingStartNanos(processingStartNanos);
+    copy.setCrop(cropLeft, cropTop);
+    return copy;
+  }
+
+  /** Creates a blank metadata object to be filled in for pooled frames. */
+  FrameMetadata() {}
+
+  void set(int width, int height, int rotation, int facing) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
     cameraFacing = facing;
   }
 
+  void setReceived(long sequenceNumber, long receiveTimestampNanos) {
+    this.sequenceNumber = sequenceNumber;
+    this.receiveTimestampNanos = receiveTimestampNanos;
+  }
+
+  void setProcessingStartNanos(long processingStartNanos) {
+    this.processingStartNanos = processingStartNanos;
+  }
+
+  void setCrop(int cropLeft, int cropTop) {
+    this.cropLeft = cropLeft;
+    this.cropTop = cropTop;
+  }
+
+  void setPyramid(@Nullable FramePyramid pyramid) {
+    this.pyramid = pyramid;
+  }
+
+  void setStatistics(@Nullable FrameStatistics statistics) {
+    this.statistics = statistics;
+  }
+
   /** Builder of {@link FrameMetadata}. */
   public static class Builder {
 
@@ -51,6 +153,9 @@ public class FrameMetadata {
     private int height;
     private int rotation;
     private int cameraFacing;
+    private long sequenceNumber;
+    private long receiveTimestampNanos;
+    private long processingStartNanos;
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -72,8 +177,27 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setSequenceNumber(long sequenceNumber) {
+      this.sequenceNumber = sequenceNumber;
+      return this;
+    }
+
+    public Builder setReceiveTimestampNanos(long receiveTimestampNanos) {
+      this.receiveTimestampNanos = receiveTimestampNanos;
+      return this;
+    }
+
+    public Builder setProcessingStartNanos(long processingStartNanos) {
+      this.processingStartNanos = processingStartNanos;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation, cameraFacing);
+      FrameMetadata frameMetadata = new FrameMetadata();
+      frameMetadata.set(width, height, rotation, cameraFacing);
+      frameMetadata.setReceived(sequenceNumber, receiveTimestampNanos);
+      frameMetadata.setProcessingStartNanos(processingStartNanos);
+      return frameMetadata;
     }
   }
 }
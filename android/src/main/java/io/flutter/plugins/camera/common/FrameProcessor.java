@@ -0,0 +1,30 @@
+package io.flutter.plugins.camera.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the preview frames pooled by {@link CameraSource}.
+ *
+ * <p>The buffer handed to {@link #process(ByteBuffer, FrameMetadata)} is the camera's own preview
+ * buffer, not a copy. It is only valid until {@code process} returns, after which it is handed
+ * back to the camera to be filled with a later frame. Implementations that need the pixels for
+ * longer must copy them.
+ */
+public interface FrameProcessor {
+
+    /**
+     * Registration flag for processors that only read the luma (Y) plane. They get a read-only
+     * view of the first {@code width * height} bytes of the frame, and when every consumer of a
+     * frame is luma-only, the pipeline stages skip the chroma plane.
+     */
+    int FLAG_LUMA_ONLY = 1;
+
+    /**
+     * Processes one NV21 preview frame.
+     *
+     * @param data          the pooled NV21 frame, positioned at 0
+     * @param frameMetadata size, rotation, facing, sequence number and timestamps of the frame,
+     *                      valid until this method returns
+     */
+    void process(ByteBuffer data, FrameMetadata frameMetadata);
+}
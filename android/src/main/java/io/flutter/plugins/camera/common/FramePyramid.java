@@ -0,0 +1,176 @@
+package io.flutter.plugins.camera.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Downscaled copies of an NV21 preview frame at 1/2, 1/4 and 1/8 of its size, for detectors that
+ * work on small images.
+ *
+ * <p>Frames delivered by {@link CameraSource} carry a pyramid in their {@link
+ * FrameMetadata#getPyramid() metadata}. Levels are computed the first time any consumer asks for
+ * them and then shared by every consumer of the frame, each one from the level above it with a 2x2
+ * box filter. The chroma plane of a level is only computed if it is asked for with {@link
+ * #getNv21(int)}. Level buffers belong to the frame's pool slot and are reused for later frames, so
+ * like the frame they are only valid until the consumer returns, and must only be read.
+ *
+ * <p>Level sizes are halved and rounded down to even numbers, so every level is a valid NV21 frame.
+ */
+public final class FramePyramid {
+
+    /** The deepest level, 1/8 of the frame size. */
+    public static final int MAX_LEVEL = 3;
+
+    private final int[] widths = new int[MAX_LEVEL + 1];
+    private final int[] heights = new int[MAX_LEVEL + 1];
+    private final ByteBuffer[] levels = new ByteBuffer[MAX_LEVEL + 1];
+    private boolean withChroma;
+
+    // Deepest level whose luma, or chroma, is computed for the current frame. Written under the
+    // lock, read without it on the fast path.
+    private volatile int lumaLevel;
+    private volatile int chromaLevel;
+
+    FramePyramid() {
+    }
+
+    /**
+     * Starts a new frame. Must be called by the processing worker before the frame is handed to any
+     * consumer.
+     */
+    synchronized void reset(ByteBuffer frame, int width, int height, boolean withChroma) {
+        this.withChroma = withChroma;
+        levels[0] = frame;
+        widths[0] = width;
+        heights[0] = height;
+        for (int level = 1; level <= MAX_LEVEL; level++) {
+            widths[level] = (widths[level - 1] / 2) & ~1;
+            heights[level] = (heights[level - 1] / 2) & ~1;
+        }
+        lumaLevel = 0;
+        chromaLevel = 0;
+    }
+
+    /** Returns the width of a level; level 0 is the frame itself. */
+    public int getWidth(int level) {
+        return widths[checkLevel(level)];
+    }
+
+    /** Returns the height of a level; level 0 is the frame itself. */
+    public int getHeight(int level) {
+        return heights[checkLevel(level)];
+    }
+
+    /**
+     * Returns a buffer holding the luma plane of a level, {@code getWidth(level)} bytes per row,
+     * from index 0. Computes the level and the ones above it if no consumer has asked for them yet.
+     */
+    public ByteBuffer getLuma(int level) {
+        checkLevel(level);
+        if (lumaLevel < level) {
+            computeLuma(level);
+        }
+        return levels[level];
+    }
+
+    /**
+     * Returns a buffer holding a level as a complete NV21 frame of {@code getWidth(level)} by
+     * {@code getHeight(level)}, from index 0. It is the same buffer as {@link #getLuma(int)}.
+     *
+     * @throws IllegalStateException if the frame only has luma, because all of its consumers were
+     *                               registered with {@link FrameProcessor#FLAG_LUMA_ONLY}
+     */
+    public ByteBuffer getNv21(int level) {
+        checkLevel(level);
+        if (!withChroma) {
+            throw new IllegalStateException("Frame has no chroma plane.");
+        }
+        if (chromaLevel < level) {
+            computeChroma(level);
+        }
+        return levels[level];
+    }
+
+    private static int checkLevel(int level) {
+        if (level < 0 || level > MAX_LEVEL) {
+            throw new IllegalArgumentException("Invalid pyramid level: " + level);
+        }
+        return level;
+    }
+
+    private synchronized void computeLuma(int level) {
+        for (int next = lumaLevel + 1; next <= level; next++) {
+            ensureBuffer(next);
+            int width = widths[next];
+            int height = heights[next];
+            if (width > 0 && height > 0) {
+                downscaleLuma(
+                        levels[next - 1].array(), widths[next - 1], levels[next].array(),
+                        width, height);
+            }
+            lumaLevel = next;
+        }
+    }
+
+    private synchronized void computeChroma(int level) {
+        // Chroma is downscaled from the chroma of the level above, which needs that level's luma
+        // buffer to exist.
+        computeLuma(level);
+        for (int next = chromaLevel + 1; next <= level; next++) {
+            int width = widths[next];
+            int height = heights[next];
+            if (width > 0 && height > 0) {
+                int parentWidth = widths[next - 1];
+                downscaleChroma(
+                        levels[next - 1].array(), parentWidth * heights[next - 1], parentWidth,
+                        levels[next].array(), width * height, width / 2, height / 2);
+            }
+            chromaLevel = next;
+        }
+    }
+
+    private void ensureBuffer(int level) {
+        int size = widths[level] * heights[level] * 3 / 2;
+        if (levels[level] == null || levels[level].capacity() < size) {
+            levels[level] = ByteBuffer.wrap(new byte[size]);
+        }
+    }
+
+    /** Averages 2x2 blocks of luma samples. */
+    private static void downscaleLuma(
+            byte[] src, int srcStride, byte[] dst, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int top = 2 * y * srcStride;
+            int bottom = top + srcStride;
+            int out = y * width;
+            for (int x = 0; x < width; x++, top += 2, bottom += 2) {
+                int sum = (src[top] & 0xff) + (src[top + 1] & 0xff)
+                        + (src[bottom] & 0xff) + (src[bottom + 1] & 0xff);
+                dst[out + x] = (byte) ((sum + 2) >> 2);
+            }
+        }
+    }
+
+    /**
+     * Averages 2x2 blocks of interleaved VU pairs, the V and U bytes separately.
+     *
+     * @param srcStride bytes per source row
+     * @param width     output width, in pairs
+     */
+    private static void downscaleChroma(
+            byte[] src, int srcOffset, int srcStride,
+            byte[] dst, int dstOffset, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int top = srcOffset + 2 * y * srcStride;
+            int bottom = top + srcStride;
+            int out = dstOffset + y * 2 * width;
+            for (int x = 0; x < width; x++, top += 4, bottom += 4, out += 2) {
+                int v = (src[top] & 0xff) + (src[top + 2] & 0xff)
+                        + (src[bottom] & 0xff) + (src[bottom + 2] & 0xff);
+                int u = (src[top + 1] & 0xff) + (src[top + 3] & 0xff)
+                        + (src[bottom + 1] & 0xff) + (src[bottom + 3] & 0xff);
+                dst[out] = (byte) ((v + 2) >> 2);
+                dst[out + 1] = (byte) ((u + 2) >> 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package io.flutter.plugins.camera.common;
+
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Holds the {@link PreviewBufferPool} slots of frames waiting between the camera callback thread,
+ * which offers them, and the processing thread, which takes them.
+ *
+ * <p>The implementation is picked from the {@link CameraSource.FrameHandoff} mode and the {@link
+ * BackpressurePolicy}. Slots that the queue displaces are handed back to the caller of {@link
+ * #offer(int)}, which returns them to the camera. A new queue is created for every camera start,
+ * so frames of a previous camera are never picked up.
+ */
+abstract class FrameQueue {
+    private static final String TAG = "MIDemoApp:FrameQueue";
+
+    protected volatile boolean active = true;
+
+    private final BackpressurePolicy policy;
+
+    FrameQueue(BackpressurePolicy policy) {
+        this.policy = policy;
+    }
+
+    static FrameQueue create(CameraSource.FrameHandoff frameHandoff, BackpressurePolicy policy) {
+        if (frameHandoff == CameraSource.FrameHandoff.LOCK_FREE) {
+            // Policies that drop the oldest frame only ever queue a single frame.
+            return policy.dropsOldest()
+                    ? new ExchangeFrameQueue(policy)
+                    : new RingFrameQueue(policy);
+        }
+        return new MonitorFrameQueue(policy);
+    }
+
+    /** Returns the policy this queue was created for. */
+    BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Queues a frame. Must be called on the camera callback thread.
+     *
+     * @return a slot that was dropped to honor the queue's capacity, which may be the offered slot
+     * itself, or {@link PreviewBufferPool#NO_SLOT}
+     */
+    abstract int offer(int slot);
+
+    /**
+     * Blocks until a frame is queued or the queue is deactivated, and takes ownership of the oldest
+     * queued frame.
+     *
+     * @return the slot of the frame to process, or NO_SLOT if processing should stop
+     */
+    abstract int take();
+
+    /** Marks the queue as active/not active. Signals any blocked threads to continue. */
+    abstract void setActive(boolean active);
+
+    /**
+     * Queue that shares a monitor between the camera thread and the processing thread, which waits
+     * on it for the next frame.
+     */
+    static final class MonitorFrameQueue extends FrameQueue {
+        // This lock guards all of the member variables below.
+        private final Object lock = new Object();
+        private final int[] slots;
+        private final boolean dropOldest;
+        private int head;
+        private int count;
+
+        MonitorFrameQueue(BackpressurePolicy policy) {
+            super(policy);
+            slots = new int[policy.getQueueCapacity()];
+            dropOldest = policy.dropsOldest();
+        }
+
+        @Override
+        int offer(int slot) {
+            synchronized (lock) {
+                int dropped = PreviewBufferPool.NO_SLOT;
+                if (count == slots.length) {
+                    if (!dropOldest) {
+                        return slot;
+                    }
+                    dropped = slots[head];
+                    head = (head + 1) % slots.length;
+                    count--;
+                }
+                slots[(head + count) % slots.length] = slot;
+                count++;
+
+                // Notify the processor thread if it is waiting on the next frame.
+                lock.notifyAll();
+                return dropped;
+            }
+        }
+
+        @Override
+        int take() {
+            synchronized (lock) {
+                while (active && (count == 0)) {
+                    try {
+                        // Wait for the next frame to be received from the camera, since we
+                        // don't have it yet.
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Log.d(TAG, "Frame processing loop terminated.", e);
+                        return PreviewBufferPool.NO_SLOT;
+                    }
+                }
+
+                if (!active) {
+                    // Exit once this camera source is stopped or released.  We check this here,
+                    // immediately after the wait() above, to handle the case where
+                    // setActive(false) had been called, triggering the termination of the loop.
+                    return PreviewBufferPool.NO_SLOT;
+                }
+
+                // Hand the slot over to the caller, so that this buffer isn't recycled back to
+                // the camera before it is done using that data.
+                int slot = slots[head];
+                head = (head + 1) % slots.length;
+                count--;
+                return slot;
+            }
+        }
+
+        @Override
+        void setActive(boolean active) {
+            synchronized (lock) {
+                this.active = active;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /** Base for the lock-free queues, whose idle processing thread is parked. */
+    abstract static class ParkingFrameQueue extends FrameQueue {
+        private volatile Thread waiter;
+
+        ParkingFrameQueue(BackpressurePolicy policy) {
+            super(policy);
+        }
+
+        /** Takes the oldest queued slot without blocking, or returns NO_SLOT. */
+        abstract int poll();
+
+        @Override
+        int take() {
+            waiter = Thread.currentThread();
+            while (active) {
+                int slot = poll();
+                if (slot != PreviewBufferPool.NO_SLOT) {
+                    return slot;
+                }
+                // Wakes up on unpark from offer() or setActive(); spurious returns just loop
+                // around.
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    Log.d(TAG, "Frame processing loop terminated.");
+                    return PreviewBufferPool.NO_SLOT;
+                }
+            }
+            return PreviewBufferPool.NO_SLOT;
+        }
+
+        @Override
+        void setActive(boolean active) {
+            this.active = active;
+            signal();
+        }
+
+        void signal() {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Single-frame queue built on one atomic exchange. The camera thread never blocks, and a
+     * replaced frame is handed back for recycling at once.
+     */
+    static final class ExchangeFrameQueue extends ParkingFrameQueue {
+        private final AtomicInteger pendingSlot = new AtomicInteger(PreviewBufferPool.NO_SLOT);
+
+        ExchangeFrameQueue(BackpressurePolicy policy) {
+            super(policy);
+        }
+
+        @Override
+        int offer(int slot) {
+            int replaced = pendingSlot.getAndSet(slot);
+            signal();
+            return replaced;
+        }
+
+        @Override
+        int poll() {
+            return pendingSlot.getAndSet(PreviewBufferPool.NO_SLOT);
+        }
+    }
+
+    /**
+     * Bounded FIFO ring with a single producer, the camera thread, that drops new frames while it is
+     * full. Takers claim the head with a compare-and-set, so the producer can never overwrite a slot
+     * that is still being read.
+     */
+    static final class RingFrameQueue extends ParkingFrameQueue {
+        private final AtomicIntegerArray slots;
+        private final int capacity;
+        // Sequence numbers of the next slot to take and the next slot to fill.
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+
+        RingFrameQueue(BackpressurePolicy policy) {
+            super(policy);
+            capacity = policy.getQueueCapacity();
+            slots = new AtomicIntegerArray(capacity);
+        }
+
+        @Override
+        int offer(int slot) {
+            long t = tail.get();
+            if (t - head.get() >= capacity) {
+                return slot;
+            }
+            slots.set((int) (t % capacity), slot);
+            tail.set(t + 1);
+            signal();
+            return PreviewBufferPool.NO_SLOT;
+        }
+
+        @Override
+        int poll() {
+            while (true) {
+                long h = head.get();
+                if (h >= tail.get()) {
+                    return PreviewBufferPool.NO_SLOT;
+                }
+                int slot = slots.get((int) (h % capacity));
+                if (head.compareAndSet(h, h + 1)) {
+                    return slot;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package io.flutter.plugins.camera.common;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Luma statistics of a preview frame: histogram, mean, variance and a sharpness score.
+ *
+ * <p>All of them come from one pass over a grid of samples of the luma plane. Sharpness is the
+ * variance of the 4-neighbour Laplacian at the samples, which drops as the image gets blurrier.
+ * Enable them with {@link CameraSource#setFrameStatisticsSampleStep(int)} and read them from
+ * {@link FrameMetadata#getStatistics()}. Each pool slot owns one instance that is refilled for
+ * every frame, so like the frame it is only valid until the consumer returns.
+ */
+public final class FrameStatistics {
+
+    /** Number of histogram bins, one per luma value. */
+    public static final int HISTOGRAM_BINS = 256;
+
+    private final int[] histogram = new int[HISTOGRAM_BINS];
+    private int sampleCount;
+    private double mean;
+    private double variance;
+    private double sharpness;
+
+    FrameStatistics() {
+    }
+
+    /** Returns how many samples the statistics were computed from. */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    /** Returns how many samples have the given luma value, from 0 to 255. */
+    public int getHistogramCount(int luma) {
+        return histogram[luma];
+    }
+
+    /** Copies the histogram into {@code out}, which must have {@link #HISTOGRAM_BINS} entries. */
+    public void getHistogram(int[] out) {
+        System.arraycopy(histogram, 0, out, 0, HISTOGRAM_BINS);
+    }
+
+    /** Returns the mean luma, from 0 to 255. */
+    public double getMean() {
+        return mean;
+    }
+
+    /** Returns the variance of the luma, a measure of contrast. */
+    public double getVariance() {
+        return variance;
+    }
+
+    /** Returns the variance of the Laplacian; higher is sharper. */
+    public double getSharpness() {
+        return sharpness;
+    }
+
+    /**
+     * Computes the statistics of a frame.
+     *
+     * @param frame      the frame, with its luma plane from index 0
+     * @param sampleStep distance in pixels between samples, in both directions
+     */
+    void compute(ByteBuffer frame, int width, int height, int sampleStep) {
+        Arrays.fill(histogram, 0);
+        long sum = 0;
+        long sumOfSquares = 0;
+        long laplacianSum = 0;
+        long laplacianSumOfSquares = 0;
+        int count = 0;
+        int laplacianCount = 0;
+
+        for (int y = 0; y < height; y += sampleStep) {
+            int row = y * width;
+            boolean innerRow = y > 0 && y < height - 1;
+            for (int x = 0; x < width; x += sampleStep) {
+                int luma = frame.get(row + x) & 0xff;
+                histogram[luma]++;
+                sum += luma;
+                sumOfSquares += luma * luma;
+                count++;
+
+                if (innerRow && x > 0 && x < width - 1) {
+                    int laplacian = 4 * luma
+                            - (frame.get(row + x - 1) & 0xff)
+                            - (frame.get(row + x + 1) & 0xff)
+                            - (frame.get(row - width + x) & 0xff)
+                            - (frame.get(row + width + x) & 0xff);
+                    laplacianSum += laplacian;
+                    laplacianSumOfSquares += laplacian * laplacian;
+                    laplacianCount++;
+                }
+            }
+        }
+
+        sampleCount = count;
+        mean = count == 0 ? 0 : (double) sum / count;
+        variance = count == 0 ? 0 : (double) sumOfSquares / count - mean * mean;
+        if (laplacianCount == 0) {
+            sharpness = 0;
+        } else {
+            double laplacianMean = (double) laplacianSum / laplacianCount;
+            sharpness = (double) laplacianSumOfSquares / laplacianCount
+                    - laplacianMean * laplacianMean;
+        }
+    }
+}
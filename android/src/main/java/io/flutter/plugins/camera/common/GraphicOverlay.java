@@ -15,6 +15,8 @@ package io.flutter.plugins.camera.common;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
 
@@ -157,6 +159,49 @@ public class GraphicOverlay extends View {
     postInvalidate();
   }
 
+  /**
+   * Maps a rectangle in this view to the coordinates of the frames that processors see, inverting
+   * {@link Graphic#translateX(float)} and {@link Graphic#translateY(float)}. Use it to pass an
+   * on-screen window to {@link CameraSource#setRegionOfInterest}, so that the frames that are
+   * analyzed match what the user sees.
+   *
+   * <p>The preview size given to {@link #setCameraInfo} must be the size of those frames. Without
+   * upright frames they are in the sensor's orientation, so the mapping only holds while the
+   * screen is in that orientation too.
+   *
+   * @param uprightFrames whether the camera source turns frames upright, see {@link
+   *                      CameraSource#setUprightFrames(boolean)}. Upright front camera frames are
+   *                      already mirrored to match the screen, so the rectangle is not mirrored
+   *                      again.
+   * @throws IllegalStateException if {@link #setCameraInfo} was not called yet
+   */
+  public Rect toPreviewRect(RectF viewRect, boolean uprightFrames) {
+    synchronized (lock) {
+      if (previewWidth == 0 || previewHeight == 0 || getWidth() == 0 || getHeight() == 0) {
+        throw new IllegalStateException("Preview size or view size unknown.");
+      }
+      return toPreviewRect(
+          viewRect, getWidth(), getHeight(), previewWidth, previewHeight, facing, uprightFrames);
+    }
+  }
+
+  /** Like {@link #toPreviewRect(RectF, boolean)}, for the given view and preview. */
+  static Rect toPreviewRect(
+      RectF viewRect, int viewWidth, int viewHeight, int previewWidth, int previewHeight,
+      int facing, boolean uprightFrames) {
+    boolean mirror = facing == CameraSource.CAMERA_FACING_FRONT && !uprightFrames;
+    float widthScale = (float) viewWidth / (float) previewWidth;
+    float heightScale = (float) viewHeight / (float) previewHeight;
+    float left = mirror ? viewWidth - viewRect.right : viewRect.left;
+    float right = mirror ? viewWidth - viewRect.left : viewRect.right;
+    Rect previewRect = new Rect();
+    previewRect.left = (int) Math.floor(left / widthScale);
+    previewRect.top = (int) Math.floor(viewRect.top / heightScale);
+    previewRect.right = (int) Math.ceil(right / widthScale);
+    previewRect.bottom = (int) Math.ceil(viewRect.bottom / heightScale);
+    return previewRect;
+  }
+
   /** Draws the overlay with its associated graphic objects. */
   @Override
   protected void onDraw(Canvas canvas) {
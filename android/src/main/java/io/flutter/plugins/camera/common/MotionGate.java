@@ -0,0 +1,109 @@
+package io.flutter.plugins.camera.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Skips frames that look the same as the last processed frame, so that a camera watching a static
+ * scene does not run its processors on every frame.
+ *
+ * <p>The gate samples the luma plane on a sparse grid and compares the samples with those of the
+ * last frame it let through. A frame passes when the mean absolute difference of its samples
+ * exceeds the threshold, when its size changed, or when {@code refreshInterval} frames in a row
+ * have been skipped. Install it with {@link CameraSource#setMotionGate(MotionGate)}.
+ */
+public final class MotionGate {
+    private final int threshold;
+    private final int sampleStep;
+    private final int refreshInterval;
+
+    private final AtomicLong passedCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    // The fields below are guarded by this.
+    private byte[] reference = new byte[0];
+    private byte[] samples = new byte[0];
+    private int sampledWidth;
+    private int sampledHeight;
+    private int skippedInARow;
+    private boolean hasReference;
+
+    /**
+     * @param threshold       mean absolute luma difference, from 0 to 255, above which a frame
+     *                        counts as changed
+     * @param sampleStep      distance in pixels between samples, in both directions
+     * @param refreshInterval number of frames in a row after which a frame passes even if nothing
+     *                        changed, so that processors still see the scene now and then
+     */
+    public MotionGate(int threshold, int sampleStep, int refreshInterval) {
+        if (threshold < 0 || threshold > 255) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        if (sampleStep < 1) {
+            throw new IllegalArgumentException("Invalid sample step: " + sampleStep);
+        }
+        if (refreshInterval < 1) {
+            throw new IllegalArgumentException("Invalid refresh interval: " + refreshInterval);
+        }
+        this.threshold = threshold;
+        this.sampleStep = sampleStep;
+        this.refreshInterval = refreshInterval;
+    }
+
+    /** Returns how many frames were let through to the processors. */
+    public long getPassedCount() {
+        return passedCount.get();
+    }
+
+    /** Returns how many frames were skipped because nothing changed. */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Decides whether a frame should be processed. A frame that passes becomes the reference for
+     * the next ones.
+     *
+     * @param frame the frame, with its luma plane from index 0
+     */
+    synchronized boolean shouldProcess(ByteBuffer frame, int width, int height) {
+        int columns = (width + sampleStep - 1) / sampleStep;
+        int rows = (height + sampleStep - 1) / sampleStep;
+        boolean resized = columns != sampledWidth || rows != sampledHeight;
+        if (resized) {
+            reference = new byte[columns * rows];
+            samples = new byte[columns * rows];
+            sampledWidth = columns;
+            sampledHeight = rows;
+            hasReference = false;
+        }
+
+        // Sample the frame and sum up the differences in one pass.
+        long difference = 0;
+        int i = 0;
+        for (int y = 0; y < height; y += sampleStep) {
+            int row = y * width;
+            for (int x = 0; x < width; x += sampleStep, i++) {
+                byte sample = frame.get(row + x);
+                samples[i] = sample;
+                difference += Math.abs((sample & 0xff) - (reference[i] & 0xff));
+            }
+        }
+
+        boolean pass = !hasReference
+                || difference > (long) threshold * samples.length
+                || skippedInARow + 1 >= refreshInterval;
+        if (pass) {
+            byte[] previous = reference;
+            reference = samples;
+            samples = previous;
+            hasReference = true;
+            skippedInARow = 0;
+            passedCount.incrementAndGet();
+        } else {
+            skippedInARow++;
+            skippedCount.incrementAndGet();
+        }
+        return pass;
+    }
+}
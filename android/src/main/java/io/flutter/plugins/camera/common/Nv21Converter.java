@@ -0,0 +1,299 @@
+package io.flutter.plugins.camera.common;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Converts the NV21 preview frames of {@link CameraSource} to ARGB or packed RGB, into buffers
+ * supplied by the caller.
+ *
+ * <p>Uses the full-range BT.601 matrix of the camera's JPEG-style YUV, in 16-bit fixed point.
+ * Frames of at least {@link #MIN_PARALLEL_PIXELS} are split into stripes of rows that run on the
+ * {@link ForkJoinPool} given to the constructor. The stripe tasks are created once and reused, so
+ * converting a frame allocates nothing.
+ *
+ * <p>A converter converts one frame at a time and is not thread safe. Give every processing worker
+ * its own converter; they may share a pool.
+ */
+public final class Nv21Converter {
+
+    /** Frames with fewer pixels are always converted on the calling thread. */
+    public static final int MIN_PARALLEL_PIXELS = 640 * 360;
+
+    private static final int OUTPUT_ARGB = 0;
+    private static final int OUTPUT_RGB_ARRAY = 1;
+    private static final int OUTPUT_RGB_BUFFER = 2;
+
+    // BT.601 full range, scaled by 2^16.
+    private static final int V_TO_R = 91881;
+    private static final int U_TO_G = 22554;
+    private static final int V_TO_G = 46802;
+    private static final int U_TO_B = 116130;
+    private static final int ROUND = 1 << 15;
+
+    @Nullable
+    private final ForkJoinPool pool;
+    private final StripeTask[] stripes;
+    private final RootTask rootTask = new RootTask();
+
+    // The frame being converted. Written before the tasks are invoked, read by the stripes.
+    private byte[] input;
+    private int inputOffset;
+    private int width;
+    private int height;
+    private int outputKind;
+    private int[] argbOutput;
+    private byte[] rgbOutput;
+    private ByteBuffer rgbBufferOutput;
+    private int activeStripes;
+
+    /** Creates a converter that converts every frame on the calling thread. */
+    public Nv21Converter() {
+        this(null);
+    }
+
+    /**
+     * Creates a converter that splits large frames across {@code pool}.
+     *
+     * @param pool the pool to convert large frames on, or null to always use the calling thread
+     */
+    public Nv21Converter(@Nullable ForkJoinPool pool) {
+        this.pool = pool;
+        // A few stripes per thread, so that one slow thread does not hold up the whole frame.
+        stripes = new StripeTask[pool == null ? 0 : 2 * pool.getParallelism()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new StripeTask();
+        }
+    }
+
+    /**
+     * Converts a frame to opaque ARGB pixels, as used by {@link android.graphics.Bitmap#setPixels}.
+     *
+     * @param nv21 an array-backed buffer holding the frame from its position 0
+     * @param out  receives {@code width * height} pixels, row by row
+     */
+    public void toArgb(ByteBuffer nv21, int width, int height, int[] out) {
+        checkOutput(out.length, width * height);
+        argbOutput = out;
+        convert(nv21, width, height, OUTPUT_ARGB);
+    }
+
+    /**
+     * Converts a frame to packed RGB, three bytes per pixel.
+     *
+     * @param nv21 an array-backed buffer holding the frame from its position 0
+     * @param out  receives {@code width * height * 3} bytes, row by row
+     */
+    public void toRgb(ByteBuffer nv21, int width, int height, byte[] out) {
+        checkOutput(out.length, width * height * 3);
+        rgbOutput = out;
+        convert(nv21, width, height, OUTPUT_RGB_ARRAY);
+    }
+
+    /**
+     * Converts a frame to packed RGB, three bytes per pixel, e.g. into a direct buffer that is
+     * passed on to native code. The buffer's position and limit are not changed.
+     *
+     * @param nv21 an array-backed buffer holding the frame from its position 0
+     * @param out  receives {@code width * height * 3} bytes from its index 0
+     */
+    public void toRgb(ByteBuffer nv21, int width, int height, ByteBuffer out) {
+        checkOutput(out.capacity(), width * height * 3);
+        if (out.isReadOnly()) {
+            throw new IllegalArgumentException("Output buffer is read-only.");
+        }
+        rgbBufferOutput = out;
+        convert(nv21, width, height, OUTPUT_RGB_BUFFER);
+    }
+
+    private static void checkOutput(int capacity, int required) {
+        if (capacity < required) {
+            throw new IllegalArgumentException(
+                    "Output too small: " + capacity + ", needs " + required);
+        }
+    }
+
+    private void convert(ByteBuffer nv21, int width, int height, int outputKind) {
+        try {
+            if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+                throw new IllegalArgumentException("Invalid frame size: " + width + "x" + height);
+            }
+            if (!nv21.hasArray()) {
+                throw new IllegalArgumentException("NV21 buffer must be backed by an array.");
+            }
+            if (nv21.capacity() < width * height * 3 / 2) {
+                throw new IllegalArgumentException(
+                        "NV21 buffer too small for " + width + "x" + height);
+            }
+            input = nv21.array();
+            inputOffset = nv21.arrayOffset();
+            this.width = width;
+            this.height = height;
+            this.outputKind = outputKind;
+
+            if (pool == null || width * height < MIN_PARALLEL_PIXELS) {
+                convertRows(0, height);
+                return;
+            }
+            int rowPairs = height / 2;
+            activeStripes = Math.min(stripes.length, rowPairs);
+            for (int i = 0; i < activeStripes; i++) {
+                StripeTask stripe = stripes[i];
+                stripe.rowStart = 2 * (rowPairs * i / activeStripes);
+                stripe.rowEnd = 2 * (rowPairs * (i + 1) / activeStripes);
+            }
+            rootTask.reinitialize();
+            pool.invoke(rootTask);
+        } finally {
+            // Don't hold on to the caller's buffers between frames.
+            input = null;
+            argbOutput = null;
+            rgbOutput = null;
+            rgbBufferOutput = null;
+        }
+    }
+
+    /** Converts the rows in {@code [rowStart, rowEnd)}. Both must be even. */
+    private void convertRows(int rowStart, int rowEnd) {
+        switch (outputKind) {
+            case OUTPUT_ARGB:
+                toArgbRows(rowStart, rowEnd);
+                break;
+            case OUTPUT_RGB_ARRAY:
+                toRgbRows(rowStart, rowEnd);
+                break;
+            default:
+                toRgbBufferRows(rowStart, rowEnd);
+                break;
+        }
+    }
+
+    // The three loops below only differ in how they store a pixel. Every VU pair is shared by a
+    // 2x2 block of pixels, so each iteration converts one block.
+
+    private void toArgbRows(int rowStart, int rowEnd) {
+        byte[] in = input;
+        int[] out = argbOutput;
+        int w = width;
+        int chromaStart = inputOffset + w * height;
+        for (int row = rowStart; row < rowEnd; row += 2) {
+            int luma = inputOffset + row * w;
+            int chroma = chromaStart + (row >> 1) * w;
+            int pixel = row * w;
+            for (int x = 0; x < w; x += 2, luma += 2, pixel += 2, chroma += 2) {
+                int v = (in[chroma] & 0xff) - 128;
+                int u = (in[chroma + 1] & 0xff) - 128;
+                int red = V_TO_R * v + ROUND;
+                int green = ROUND - U_TO_G * u - V_TO_G * v;
+                int blue = U_TO_B * u + ROUND;
+                out[pixel] = toArgb(in[luma], red, green, blue);
+                out[pixel + 1] = toArgb(in[luma + 1], red, green, blue);
+                out[pixel + w] = toArgb(in[luma + w], red, green, blue);
+                out[pixel + w + 1] = toArgb(in[luma + w + 1], red, green, blue);
+            }
+        }
+    }
+
+    private void toRgbRows(int rowStart, int rowEnd) {
+        byte[] in = input;
+        byte[] out = rgbOutput;
+        int w = width;
+        int stride = 3 * w;
+        int chromaStart = inputOffset + w * height;
+        for (int row = rowStart; row < rowEnd; row += 2) {
+            int luma = inputOffset + row * w;
+            int chroma = chromaStart + (row >> 1) * w;
+            int index = row * stride;
+            for (int x = 0; x < w; x += 2, luma += 2, index += 6, chroma += 2) {
+                int v = (in[chroma] & 0xff) - 128;
+                int u = (in[chroma + 1] & 0xff) - 128;
+                int red = V_TO_R * v + ROUND;
+                int green = ROUND - U_TO_G * u - V_TO_G * v;
+                int blue = U_TO_B * u + ROUND;
+                putRgb(out, index, toArgb(in[luma], red, green, blue));
+                putRgb(out, index + 3, toArgb(in[luma + 1], red, green, blue));
+                putRgb(out, index + stride, toArgb(in[luma + w], red, green, blue));
+                putRgb(out, index + stride + 3, toArgb(in[luma + w + 1], red, green, blue));
+            }
+        }
+    }
+
+    private void toRgbBufferRows(int rowStart, int rowEnd) {
+        byte[] in = input;
+        ByteBuffer out = rgbBufferOutput;
+        int w = width;
+        int stride = 3 * w;
+        int chromaStart = inputOffset + w * height;
+        for (int row = rowStart; row < rowEnd; row += 2) {
+            int luma = inputOffset + row * w;
+            int chroma = chromaStart + (row >> 1) * w;
+            int index = row * stride;
+            for (int x = 0; x < w; x += 2, luma += 2, index += 6, chroma += 2) {
+                int v = (in[chroma] & 0xff) - 128;
+                int u = (in[chroma + 1] & 0xff) - 128;
+                int red = V_TO_R * v + ROUND;
+                int green = ROUND - U_TO_G * u - V_TO_G * v;
+                int blue = U_TO_B * u + ROUND;
+                putRgb(out, index, toArgb(in[luma], red, green, blue));
+                putRgb(out, index + 3, toArgb(in[luma + 1], red, green, blue));
+                putRgb(out, index + stride, toArgb(in[luma + w], red, green, blue));
+                putRgb(out, index + stride + 3, toArgb(in[luma + w + 1], red, green, blue));
+            }
+        }
+    }
+
+    private static int toArgb(byte luma, int red, int green, int blue) {
+        int y = (luma & 0xff) << 16;
+        return 0xff000000
+                | clamp((y + red) >> 16) << 16
+                | clamp((y + green) >> 16) << 8
+                | clamp((y + blue) >> 16);
+    }
+
+    private static int clamp(int value) {
+        if ((value & ~0xff) == 0) {
+            return value;
+        }
+        return value < 0 ? 0 : 255;
+    }
+
+    private static void putRgb(byte[] out, int index, int argb) {
+        out[index] = (byte) (argb >> 16);
+        out[index + 1] = (byte) (argb >> 8);
+        out[index + 2] = (byte) argb;
+    }
+
+    private static void putRgb(ByteBuffer out, int index, int argb) {
+        out.put(index, (byte) (argb >> 16));
+        out.put(index + 1, (byte) (argb >> 8));
+        out.put(index + 2, (byte) argb);
+    }
+
+    /** Forks the active stripes and waits for them, running the first one itself. */
+    private final class RootTask extends RecursiveAction {
+        @Override
+        protected void compute() {
+            for (int i = 1; i < activeStripes; i++) {
+                stripes[i].reinitialize();
+                stripes[i].fork();
+            }
+            convertRows(stripes[0].rowStart, stripes[0].rowEnd);
+            for (int i = activeStripes - 1; i >= 1; i--) {
+                stripes[i].join();
+            }
+        }
+    }
+
+    private final class StripeTask extends RecursiveAction {
+        int rowStart;
+        int rowEnd;
+
+        @Override
+        protected void compute() {
+            convertRows(rowStart, rowEnd);
+        }
+    }
+}
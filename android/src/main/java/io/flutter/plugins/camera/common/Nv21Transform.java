@@ -0,0 +1,229 @@
+package io.flutter.plugins.camera.common;
+
+/**
+ * Rotates NV21 frames by quarter turns and optionally mirrors them, e.g. to turn the sensor-oriented
+ * frames of {@link CameraSource} upright, and crops them.
+ *
+ * <p>Both planes are copied in square tiles, so that the rows being read and the columns being
+ * written by a rotation both stay in cache. The VU pairs of the chroma plane are moved as units.
+ * Crops are aligned to even coordinates, so that they never split a VU pair.
+ */
+public final class Nv21Transform {
+
+    /** Edge of the tiles, in samples. 32 rows of a tile fit comfortably in the L1 cache. */
+    private static final int TILE = 32;
+
+    private Nv21Transform() {
+    }
+
+    /** Returns the width of a frame after rotating it by {@code rotation} quarter turns. */
+    public static int getOutputWidth(int width, int height, int rotation) {
+        return (rotation & 1) == 0 ? width : height;
+    }
+
+    /** Returns the height of a frame after rotating it by {@code rotation} quarter turns. */
+    public static int getOutputHeight(int width, int height, int rotation) {
+        return (rotation & 1) == 0 ? height : width;
+    }
+
+    /**
+     * Rotates a frame clockwise, then mirrors it horizontally if requested.
+     *
+     * @param src      the NV21 frame, from index 0
+     * @param width    width of the source frame, even
+     * @param height   height of the source frame, even
+     * @param rotation number of clockwise quarter turns, one of the {@link FrameMetadata} rotation
+     *                 values 0 to 3
+     * @param mirror   whether to flip the rotated frame left to right
+     * @param dst      receives the transformed frame, from index 0; must not be {@code src}
+     */
+    public static void transform(
+            byte[] src, int width, int height, int rotation, boolean mirror, byte[] dst) {
+        transform(src, width, height, rotation, mirror, dst, true);
+    }
+
+    /**
+     * Like {@link #transform(byte[], int, int, int, boolean, byte[])}, but leaves the chroma plane
+     * of {@code dst} untouched unless {@code withChroma} is set.
+     */
+    static void transform(
+            byte[] src, int width, int height, int rotation, boolean mirror, byte[] dst,
+            boolean withChroma) {
+        if ((width & 1) != 0 || (height & 1) != 0 || width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid frame size: " + width + "x" + height);
+        }
+        if (rotation < 0 || rotation > 3) {
+            throw new IllegalArgumentException("Invalid rotation: " + rotation);
+        }
+        int lumaSize = width * height;
+        int frameSize = lumaSize * 3 / 2;
+        if (src.length < frameSize || dst.length < frameSize) {
+            throw new IllegalArgumentException("Buffers too small for " + width + "x" + height);
+        }
+        if (src == dst) {
+            throw new IllegalArgumentException("Cannot transform in place.");
+        }
+        if (rotation == 0 && !mirror) {
+            System.arraycopy(src, 0, dst, 0, withChroma ? frameSize : lumaSize);
+            return;
+        }
+        transformPlane(src, 0, width, height, rotation, mirror, dst, 1);
+        if (withChroma) {
+            transformPlane(src, lumaSize, width / 2, height / 2, rotation, mirror, dst, 2);
+        }
+    }
+
+    /**
+     * Copies a rectangle of a frame into a frame of its own. All edges must be even.
+     *
+     * @param dst receives the {@code (right - left)} by {@code (bottom - top)} frame, from index 0
+     */
+    public static void crop(
+            byte[] src, int width, int height, int left, int top, int right, int bottom,
+            byte[] dst) {
+        crop(src, width, height, left, top, right, bottom, dst, true);
+    }
+
+    /**
+     * Like {@link #crop(byte[], int, int, int, int, int, int, byte[])}, but leaves the chroma plane
+     * of {@code dst} untouched unless {@code withChroma} is set.
+     */
+    static void crop(
+            byte[] src, int width, int height, int left, int top, int right, int bottom,
+            byte[] dst, boolean withChroma) {
+        if (((left | top | right | bottom) & 1) != 0
+                || left < 0 || top < 0 || right > width || bottom > height
+                || left >= right || top >= bottom) {
+            throw new IllegalArgumentException(
+                    "Invalid crop " + left + "," + top + "-" + right + "," + bottom
+                            + " of " + width + "x" + height);
+        }
+        int cropWidth = right - left;
+        int cropHeight = bottom - top;
+        if (dst.length < cropWidth * cropHeight * 3 / 2) {
+            throw new IllegalArgumentException(
+                    "Buffer too small for " + cropWidth + "x" + cropHeight);
+        }
+        for (int y = 0; y < cropHeight; y++) {
+            System.arraycopy(src, (top + y) * width + left, dst, y * cropWidth, cropWidth);
+        }
+        if (!withChroma) {
+            return;
+        }
+        // Chroma rows hold width / 2 VU pairs, one row for every two luma rows.
+        int chroma = width * height;
+        int cropChroma = cropWidth * cropHeight;
+        for (int y = 0; y < cropHeight / 2; y++) {
+            System.arraycopy(
+                    src, chroma + (top / 2 + y) * width + left,
+                    dst, cropChroma + y * cropWidth, cropWidth);
+        }
+    }
+
+    /**
+     * Crops a frame and transforms the crop, like {@link #transform} followed by {@link #crop} but
+     * only touching the pixels inside the crop. The crop is given in the coordinates of the
+     * transformed frame.
+     *
+     * @param scratch receives the crop before it is transformed
+     */
+    static void cropAndTransform(
+            byte[] src, int width, int height, int rotation, boolean mirror,
+            int left, int top, int right, int bottom, byte[] scratch, byte[] dst,
+            boolean withChroma) {
+        // Undo the mirroring, then the clockwise rotation, to find the crop in the source.
+        int outputWidth = getOutputWidth(width, height, rotation);
+        if (mirror) {
+            int mirroredLeft = outputWidth - right;
+            right = outputWidth - left;
+            left = mirroredLeft;
+        }
+        int sourceLeft, sourceTop, sourceRight, sourceBottom;
+        switch (rotation) {
+            case 0:
+                sourceLeft = left; sourceRight = right;
+                sourceTop = top; sourceBottom = bottom;
+                break;
+            case 1:
+                sourceLeft = top; sourceRight = bottom;
+                sourceTop = height - right; sourceBottom = height - left;
+                break;
+            case 2:
+                sourceLeft = width - right; sourceRight = width - left;
+                sourceTop = height - bottom; sourceBottom = height - top;
+                break;
+            default:
+                sourceLeft = width - bottom; sourceRight = width - top;
+                sourceTop = left; sourceBottom = right;
+                break;
+        }
+        crop(src, width, height, sourceLeft, sourceTop, sourceRight, sourceBottom, scratch,
+                withChroma);
+        transform(
+                scratch, sourceRight - sourceLeft, sourceBottom - sourceTop, rotation, mirror, dst,
+                withChroma);
+    }
+
+    /**
+     * Moves the samples of one plane. Every destination index is an affine function of the source
+     * coordinates, so each row of a tile is walked with a fixed destination step.
+     *
+     * @param sampleSize 1 for the luma plane, 2 for the VU pairs of the chroma plane
+     */
+    private static void transformPlane(
+            byte[] src, int offset, int width, int height, int rotation, boolean mirror,
+            byte[] dst, int sampleSize) {
+        int outputWidth = getOutputWidth(width, height, rotation);
+        // Destination column and row of source sample (x, y): dx = dx0 + dxx*x + dxy*y, and so on.
+        int dx0, dxx, dxy, dy0, dyx, dyy;
+        switch (rotation) {
+            case 0:
+                dx0 = 0; dxx = 1; dxy = 0;
+                dy0 = 0; dyx = 0; dyy = 1;
+                break;
+            case 1:
+                dx0 = height - 1; dxx = 0; dxy = -1;
+                dy0 = 0; dyx = 1; dyy = 0;
+                break;
+            case 2:
+                dx0 = width - 1; dxx = -1; dxy = 0;
+                dy0 = height - 1; dyx = 0; dyy = -1;
+                break;
+            default:
+                dx0 = 0; dxx = 0; dxy = 1;
+                dy0 = width - 1; dyx = -1; dyy = 0;
+                break;
+        }
+        if (mirror) {
+            dx0 = outputWidth - 1 - dx0;
+            dxx = -dxx;
+            dxy = -dxy;
+        }
+        int origin = dx0 + dy0 * outputWidth;
+        int stepX = dxx + dyx * outputWidth;
+        int stepY = dxy + dyy * outputWidth;
+
+        for (int tileY = 0; tileY < height; tileY += TILE) {
+            int endY = Math.min(tileY + TILE, height);
+            for (int tileX = 0; tileX < width; tileX += TILE) {
+                int endX = Math.min(tileX + TILE, width);
+                for (int y = tileY; y < endY; y++) {
+                    int s = y * width + tileX;
+                    int d = origin + y * stepY + tileX * stepX;
+                    if (sampleSize == 1) {
+                        for (int x = tileX; x < endX; x++, s++, d += stepX) {
+                            dst[d] = src[offset + s];
+                        }
+                    } else {
+                        for (int x = tileX; x < endX; x++, s++, d += stepX) {
+                            int from = offset + 2 * s;
+                            int to = offset + 2 * d;
+                            dst[to] = src[from];
+                            dst[to + 1] = src[from + 1];
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package io.flutter.plugins.camera.common;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded pool of the preview buffers that {@link CameraSource} lends to the camera.
+ *
+ * <p>Every buffer lives in a numbered slot, and slot {@code i} is allocated with exactly {@code
+ * i} more bytes than the smallest buffer. The camera only fills the first frame-sized part of a
+ * callback buffer, so the length of the array handed back in {@code onPreviewFrame} identifies its
+ * slot directly, without hashing the array. An identity check against the slot's own array guards
+ * against foreign buffers.
+ *
+ * <p>Each slot also tracks which stage of the frame pipeline currently owns its buffer. The number
+ * of times each state has been entered is counted, so the pool size can be tuned from real data.
+ *
+ * <p>The pool sizes itself between a minimum and its capacity. When a frame arrives and the camera
+ * is left without a buffer to fill, the camera is starving and {@link #onFrameHandedOff()} asks
+ * for another buffer. When the camera keeps holding more than one spare buffer for {@link
+ * #SHRINK_AFTER_IDLE_FRAMES} consecutive frames, the next buffer to be recycled is retired instead.
+ */
+public class PreviewBufferPool {
+    /** The slot's buffer is allocated but not owned by anyone. */
+    public static final int STATE_FREE = 0;
+
+    /** The slot's buffer has been handed to the camera to be filled. */
+    public static final int STATE_WITH_CAMERA = 1;
+
+    /** The slot's buffer holds a frame waiting for the processing thread. */
+    public static final int STATE_PENDING = 2;
+
+    /** The slot's buffer holds a frame that is being processed. */
+    public static final int STATE_PROCESSING = 3;
+
+    private static final int STATE_COUNT = 4;
+
+    /** Number of consecutive frames with an idle spare buffer after which the pool shrinks. */
+    static final int SHRINK_AFTER_IDLE_FRAMES = 60;
+
+    /** Returned by {@link #slotOf(byte[])} for arrays that are not owned by this pool. */
+    static final int NO_SLOT = -1;
+
+    private final int minSize;
+    private final int capacity;
+    private final int frameSize;
+    private final FrameLease.Recycler recycler;
+    private final AtomicReferenceArray<FrameLease> leases;
+    private final AtomicIntegerArray states;
+    private final AtomicLongArray stateHits = new AtomicLongArray(STATE_COUNT);
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger withCamera = new AtomicInteger();
+    private final AtomicBoolean shrinkRequested = new AtomicBoolean();
+    private final AtomicLong starvationCount = new AtomicLong();
+
+    // Only touched on the camera callback thread.
+    private int idleFrames;
+
+    /**
+     * @param minSize   number of buffers below which the pool never shrinks
+     * @param capacity  maximum number of buffers in the pool
+     * @param frameSize minimum buffer size, in bytes, for one preview frame
+     * @param recycler  returns a buffer to the camera once its lease is fully released
+     */
+    PreviewBufferPool(int minSize, int capacity, int frameSize, FrameLease.Recycler recycler) {
+        if (minSize <= 0 || capacity < minSize) {
+            throw new IllegalArgumentException("Invalid bounds: " + minSize + ".." + capacity);
+        }
+        this.minSize = minSize;
+        this.capacity = capacity;
+        this.frameSize = frameSize;
+        this.recycler = recycler;
+        leases = new AtomicReferenceArray<>(capacity);
+        states = new AtomicIntegerArray(capacity);
+    }
+
+    /** Returns the maximum number of buffers this pool can hold. */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Returns the number of buffers below which the pool never shrinks. */
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /** Returns the number of slots that currently have a buffer allocated. */
+    public int getSize() {
+        return size.get();
+    }
+
+    /** Returns how many frames arrived while the camera had no other buffer left to fill. */
+    public long getStarvationCount() {
+        return starvationCount.get();
+    }
+
+    /** Returns the current state of a slot, one of the {@code STATE_} constants. */
+    public int getState(int slot) {
+        return states.get(slot);
+    }
+
+    /**
+     * Returns how many times any slot has entered the given state since this pool was created.
+     *
+     * @param state one of the {@code STATE_} constants
+     */
+    public long getStateHitCount(int state) {
+        return stateHits.get(state);
+    }
+
+    /**
+     * Allocates a buffer in the first empty slot.
+     *
+     * @return the slot index, or {@link #NO_SLOT} if the pool is full
+     */
+    int addSlot() {
+        for (int slot = 0; slot < capacity; slot++) {
+            if (leases.get(slot) == null) {
+                // Creating the byte array this way and wrapping it, as opposed to using
+                // .allocate(), should guarantee that there will be an array to work with.
+                byte[] byteArray = new byte[frameSize + slot];
+                ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+                if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+                    // I don't think that this will ever happen.  But if it does, then we wouldn't
+                    // be passing the preview content to the underlying detector later.
+                    throw new IllegalStateException("Failed to create valid buffer for camera source.");
+                }
+                setState(slot, STATE_FREE);
+                leases.set(slot, new FrameLease(this, slot, buffer, recycler));
+                size.incrementAndGet();
+                return slot;
+            }
+        }
+        return NO_SLOT;
+    }
+
+    /**
+     * Resolves an array received from the camera to its slot.
+     *
+     * @return the slot index, or {@link #NO_SLOT} if the array does not belong to this pool
+     */
+    int slotOf(byte[] data) {
+        int slot = data.length - frameSize;
+        if (slot < 0 || slot >= capacity) {
+            return NO_SLOT;
+        }
+        FrameLease lease = leases.get(slot);
+        return lease != null && lease.getData().array() == data ? slot : NO_SLOT;
+    }
+
+    /** Returns the buffer of a slot, or null if the slot is empty. */
+    @Nullable
+    ByteBuffer buffer(int slot) {
+        FrameLease lease = leases.get(slot);
+        return lease == null ? null : lease.getData();
+    }
+
+    /** Returns the lease of a slot, or null if the slot is empty. */
+    @Nullable
+    FrameLease lease(int slot) {
+        return leases.get(slot);
+    }
+
+    /** Returns whether the lease still owns a buffer of this pool, i.e. has not been retired. */
+    boolean owns(FrameLease lease) {
+        return leases.get(lease.getSlot()) == lease;
+    }
+
+    /** Moves a slot to a new state and counts the transition. */
+    void setState(int slot, int state) {
+        int previous = states.getAndSet(slot, state);
+        if (previous != state) {
+            if (previous == STATE_WITH_CAMERA) {
+                withCamera.decrementAndGet();
+            } else if (state == STATE_WITH_CAMERA) {
+                withCamera.incrementAndGet();
+            }
+        }
+        stateHits.incrementAndGet(state);
+    }
+
+    /**
+     * Updates the sizing heuristics after a received frame has been handed to the processing side
+     * and any frame it replaced has been recycled. Must be called on the camera callback thread.
+     *
+     * @return true if the camera is starving and a buffer should be added with {@link #addSlot()}
+     */
+    boolean onFrameHandedOff() {
+        int spare = withCamera.get();
+        if (spare == 0) {
+            starvationCount.incrementAndGet();
+            idleFrames = 0;
+            return size.get() < capacity;
+        }
+        if (spare > 1 && size.get() > minSize) {
+            if (++idleFrames >= SHRINK_AFTER_IDLE_FRAMES) {
+                idleFrames = 0;
+                shrinkRequested.set(true);
+            }
+        } else {
+            idleFrames = 0;
+        }
+        return false;
+    }
+
+    /**
+     * Frees a slot that is about to be recycled if the pool has been asked to shrink.
+     *
+     * @return true if the slot was retired and must not be handed back to the camera
+     */
+    boolean retireIfShrinking(int slot) {
+        if (!shrinkRequested.compareAndSet(true, false) || size.get() <= minSize) {
+            return false;
+        }
+        setState(slot, STATE_FREE);
+        leases.set(slot, null);
+        size.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Marks a slot as lent to the camera and returns its array for {@code addCallbackBuffer}.
+     */
+    byte[] lendToCamera(int slot) {
+        setState(slot, STATE_WITH_CAMERA);
+        return leases.get(slot).getData().array();
+    }
+
+    /** Drops every buffer. State hit counters are kept. */
+    void clear() {
+        for (int slot = 0; slot < capacity; slot++) {
+            leases.set(slot, null);
+            states.set(slot, STATE_FREE);
+        }
+        size.set(0);
+        withCamera.set(0);
+        shrinkRequested.set(false);
+    }
+}
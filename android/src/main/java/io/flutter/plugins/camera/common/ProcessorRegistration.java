@@ -0,0 +1,107 @@
+package io.flutter.plugins.camera.common;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link FrameProcessor} registered with {@link CameraSource}, together with the executor it
+ * runs on and its flags. Processors without an executor run inline on the processing thread.
+ *
+ * <p>Processors with an executor read the frame concurrently with other consumers. Each gets its
+ * own view of the pooled buffer and its own dispatch task per pool slot, both created the first
+ * time the slot is delivered and reused afterwards, so fanning a frame out allocates nothing.
+ * The view is only recreated when the slot switches between its camera buffer and its transformed
+ * copy.
+ * A slot cannot come back from the camera before every lease on it is released, so a task is never
+ * reused while it is still queued or running.
+ */
+final class ProcessorRegistration {
+    private static final String TAG = "MIDemoApp:Processor";
+
+    final FrameProcessor processor;
+    @Nullable
+    final Executor executor;
+    private final int flags;
+
+    private DispatchTask[] tasks = new DispatchTask[0];
+
+    ProcessorRegistration(FrameProcessor processor, @Nullable Executor executor, int flags) {
+        this.processor = processor;
+        this.executor = executor;
+        this.flags = flags;
+    }
+
+    /** Whether the processor only reads luma, see {@link FrameProcessor#FLAG_LUMA_ONLY}. */
+    boolean isLumaOnly() {
+        return (flags & FrameProcessor.FLAG_LUMA_ONLY) != 0;
+    }
+
+    /**
+     * Runs the processor on its executor. Takes a reference on the lease that is released once the
+     * processor returns.
+     */
+    void dispatch(FrameLease lease, FrameMetadata frameMetadata) {
+        DispatchTask task = taskFor(lease);
+        task.frameMetadata = frameMetadata;
+        lease.retain();
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Could not dispatch frame to " + processor, e);
+            lease.release();
+        }
+    }
+
+    private synchronized DispatchTask taskFor(FrameLease lease) {
+        int slot = lease.getSlot();
+        if (slot >= tasks.length) {
+            DispatchTask[] grown = new DispatchTask[lease.getPool().getCapacity()];
+            System.arraycopy(tasks, 0, grown, 0, tasks.length);
+            tasks = grown;
+        }
+        DispatchTask task = tasks[slot];
+        if (task == null || task.lease != lease) {
+            // First frame in this slot, or the pool was replaced by a camera restart.
+            task = new DispatchTask(lease);
+            tasks[slot] = task;
+        }
+        return task;
+    }
+
+    private final class DispatchTask implements Runnable {
+        final FrameLease lease;
+        volatile FrameMetadata frameMetadata;
+
+        // The buffer the view was made for. Only changes when frame transforms are switched.
+        private ByteBuffer viewSource;
+        private ByteBuffer view;
+
+        DispatchTask(FrameLease lease) {
+            this.lease = lease;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ByteBuffer frame = lease.getFrame();
+                if (frame != viewSource) {
+                    viewSource = frame;
+                    view = isLumaOnly() ? frame.asReadOnlyBuffer() : frame.duplicate();
+                }
+                view.clear();
+                if (isLumaOnly()) {
+                    view.limit(frameMetadata.getWidth() * frameMetadata.getHeight());
+                }
+                processor.process(view, frameMetadata);
+            } catch (Throwable t) {
+                Log.e(TAG, "Exception thrown from receiver.", t);
+            } finally {
+                lease.release();
+            }
+        }
+    }
+}
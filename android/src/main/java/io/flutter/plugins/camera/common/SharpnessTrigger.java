@@ -0,0 +1,69 @@
+package io.flutter.plugins.camera.common;
+
+/**
+ * Decides when a sharpness-gated capture fires, from the {@link FrameStatistics#getSharpness()
+ * sharpness} of consecutive preview frames.
+ *
+ * <p>Fires on the first frame whose score reaches the threshold; once a full window of scores has
+ * been seen, on a frame right after a peak, i.e. when the previous score is the highest in the
+ * window and the current one is lower; or on the first frame after the deadline. A peak means the
+ * camera was at its steadiest a moment ago, which is the best that can be expected if the
+ * threshold is never reached.
+ */
+final class SharpnessTrigger {
+    private final double threshold;
+    private final long deadlineNanos;
+    private final double[] window;
+
+    // The fields below are guarded by this.
+    private int count;
+    private boolean fired;
+
+    /**
+     * @param threshold     score at which the capture fires immediately
+     * @param windowSize    number of recent scores a peak has to beat
+     * @param deadlineNanos time at which the capture fires regardless, in {@code
+     *                      elapsedRealtimeNanos}
+     */
+    SharpnessTrigger(double threshold, int windowSize, long deadlineNanos) {
+        if (windowSize < 2) {
+            throw new IllegalArgumentException("Invalid window size: " + windowSize);
+        }
+        this.threshold = threshold;
+        this.deadlineNanos = deadlineNanos;
+        window = new double[windowSize];
+    }
+
+    /**
+     * Records the score of the next frame.
+     *
+     * @param timestampNanos when the frame was received, in {@code elapsedRealtimeNanos}
+     * @return true exactly once, for the frame on which the capture should fire
+     */
+    synchronized boolean onFrame(double sharpness, long timestampNanos) {
+        if (fired) {
+            return false;
+        }
+        window[count % window.length] = sharpness;
+        count++;
+
+        fired = sharpness >= threshold
+                || timestampNanos >= deadlineNanos
+                || (count >= window.length && isAfterPeak());
+        return fired;
+    }
+
+    private boolean isAfterPeak() {
+        double current = window[(count - 1) % window.length];
+        double previous = window[(count - 2) % window.length];
+        if (current >= previous) {
+            return false;
+        }
+        for (double score : window) {
+            if (score > previous) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,23 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CaptureTimingsTest {
+
+  @Test
+  public void reportsStagesInOrderWithTotal() {
+    CaptureTimings timings = new CaptureTimings();
+    timings.mark("decode");
+    timings.mark("encode");
+
+    String report = timings.report();
+    assertTrue(report, report.matches("decode \\d+ms, encode \\d+ms, total \\d+ms"));
+  }
+
+  @Test
+  public void reportsTotalWithoutStages() {
+    assertTrue(new CaptureTimings().report().matches("total \\d+ms"));
+  }
+}
@@ -0,0 +1,62 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DecodePlanTest {
+
+  @Test
+  public void decodesSmallImagesAsTheyAre() {
+    DecodePlan plan = DecodePlan.forMaxEdge(1280, 960, 1920);
+
+    assertEquals(1, plan.getSampleSize());
+    assertEquals(1280, plan.getOutputEdge());
+    assertEquals(1280, plan.getSampledEdge());
+  }
+
+  @Test
+  public void subsamplesThenScalesToTarget() {
+    DecodePlan plan = DecodePlan.forMaxEdge(4000, 3000, 1920);
+
+    assertEquals(2, plan.getSampleSize());
+    assertEquals(2000, plan.getSampledEdge());
+    assertEquals(1920, plan.getOutputEdge());
+  }
+
+  @Test
+  public void picksLargestPowerOfTwoAboveTarget() {
+    DecodePlan plan = DecodePlan.forMaxEdge(9000, 12000, 1920);
+
+    assertEquals(4, plan.getSampleSize());
+    assertEquals(3000, plan.getSampledEdge());
+    assertEquals(1920, plan.getOutputEdge());
+  }
+
+  @Test
+  public void landsExactlyWithoutScaling() {
+    DecodePlan plan = DecodePlan.forMaxEdge(3840, 2160, 1920);
+
+    assertEquals(2, plan.getSampleSize());
+    assertEquals(1920, plan.getSampledEdge());
+  }
+
+  @Test
+  public void roundsSampledEdgeUp() {
+    assertEquals(2001, DecodePlan.forMaxEdge(4001, 3000, 1920).getSampledEdge());
+  }
+
+  @Test
+  public void coarserPlanNeverScalesUp() {
+    DecodePlan plan = DecodePlan.forMaxEdge(4000, 3000, 1920).coarser();
+
+    assertEquals(4, plan.getSampleSize());
+    assertEquals(1000, plan.getSampledEdge());
+    assertEquals(1000, plan.getOutputEdge());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInvalidTarget() {
+    DecodePlan.forMaxEdge(4000, 3000, 0);
+  }
+}
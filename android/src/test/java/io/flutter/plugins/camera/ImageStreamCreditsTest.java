@@ -0,0 +1,67 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ImageStreamCreditsTest {
+
+  @Test
+  public void isUnlimitedWithoutCredits() {
+    ImageStreamCredits credits = new ImageStreamCredits();
+    credits.reset(0);
+
+    for (int i = 0; i < 100; i++) {
+      assertTrue(credits.tryConsume());
+    }
+    assertEquals(0, credits.takeDroppedCount());
+  }
+
+  @Test
+  public void dropsImagesWhileCreditsAreExhausted() {
+    ImageStreamCredits credits = new ImageStreamCredits();
+    credits.reset(2);
+
+    assertTrue(credits.tryConsume());
+    assertTrue(credits.tryConsume());
+    assertFalse(credits.tryConsume());
+    assertFalse(credits.tryConsume());
+
+    credits.grant(1);
+    assertTrue(credits.tryConsume());
+    assertFalse(credits.tryConsume());
+  }
+
+  @Test
+  public void countsDropsUntilTaken() {
+    ImageStreamCredits credits = new ImageStreamCredits();
+    credits.reset(1);
+
+    credits.tryConsume();
+    credits.tryConsume();
+    credits.tryConsume();
+    credits.recordDropped();
+
+    assertEquals(3, credits.takeDroppedCount());
+    assertEquals(0, credits.takeDroppedCount());
+  }
+
+  @Test
+  public void resetStartsOver() {
+    ImageStreamCredits credits = new ImageStreamCredits();
+    credits.reset(1);
+    credits.tryConsume();
+    credits.tryConsume();
+
+    credits.reset(1);
+    assertEquals(0, credits.takeDroppedCount());
+    assertTrue(credits.tryConsume());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNonPositiveGrants() {
+    new ImageStreamCredits().grant(0);
+  }
+}
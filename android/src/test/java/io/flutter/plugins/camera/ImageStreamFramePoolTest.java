@@ -0,0 +1,118 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class ImageStreamFramePoolTest {
+
+  @Test
+  public void fillsMessageInCameraDartLayout() {
+    ImageStreamFramePool.Frame frame = new ImageStreamFramePool(1).acquire();
+    frame.setImage(4, 2, 35, 2);
+    frame.setPlane(0, ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}), 4, 1);
+    frame.setPlane(1, ByteBuffer.wrap(new byte[] {9, 10}), 2, 2);
+
+    Map<String, Object> message = frame.getMessage();
+    assertEquals(4, message.get("width"));
+    assertEquals(2, message.get("height"));
+    assertEquals(35, message.get("format"));
+    List<?> planes = (List<?>) message.get("planes");
+    assertEquals(2, planes.size());
+    Map<?, ?> chroma = (Map<?, ?>) planes.get(1);
+    assertEquals(2, chroma.get("bytesPerRow"));
+    assertEquals(2, chroma.get("bytesPerPixel"));
+    assertArrayEquals(new byte[] {9, 10}, (byte[]) chroma.get("bytes"));
+  }
+
+  @Test
+  public void reusesContainersAndArrays() {
+    ImageStreamFramePool pool = new ImageStreamFramePool(1);
+    ImageStreamFramePool.Frame frame = pool.acquire();
+    frame.setImage(2, 2, 35, 1);
+    frame.setPlane(0, ByteBuffer.wrap(new byte[] {1, 2, 3, 4}), 2, 1);
+    Map<String, Object> message = frame.getMessage();
+    Object planes = message.get("planes");
+    Object bytes = ((Map<?, ?>) ((List<?>) planes).get(0)).get("bytes");
+    frame.release();
+
+    frame = pool.acquire();
+    frame.setImage(2, 2, 35, 1);
+    frame.setPlane(0, ByteBuffer.wrap(new byte[] {5, 6, 7, 8}), 2, 1);
+    assertSame(message, frame.getMessage());
+    assertSame(planes, message.get("planes"));
+    Map<?, ?> plane = (Map<?, ?>) ((List<?>) planes).get(0);
+    assertSame(bytes, plane.get("bytes"));
+    assertArrayEquals(new byte[] {5, 6, 7, 8}, (byte[]) bytes);
+
+    // A plane of a different size gets an array of its own size.
+    frame.setPlane(0, ByteBuffer.wrap(new byte[] {1, 2}), 2, 1);
+    assertEquals(2, ((byte[]) plane.get("bytes")).length);
+  }
+
+  @Test
+  public void neverHandsOutFramesInFlight() {
+    ImageStreamFramePool pool = new ImageStreamFramePool(2);
+    ImageStreamFramePool.Frame first = pool.acquire();
+    ImageStreamFramePool.Frame second = pool.acquire();
+    assertNotNull(second);
+    assertNotSame(first, second);
+    assertNull(pool.acquire());
+
+    second.release();
+    assertSame(second, pool.acquire());
+    assertNull(pool.acquire());
+  }
+
+  @Test
+  public void packsImageIntoOneBuffer() {
+    ImageStreamFramePool.Frame frame = new ImageStreamFramePool(1).acquire();
+    frame.startPacked(4, 2, 35, 123456789L, 7, 2, 10);
+    frame.packPlane(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}), 4, 1);
+    frame.packPlane(ByteBuffer.wrap(new byte[] {9, 10}), 2, 2);
+
+    ByteBuffer packed = frame.getPacked();
+    int dataOffset = PackedImageFormat.getDataOffset(2);
+    assertEquals(dataOffset + 10, packed.position());
+    assertEquals(PackedImageFormat.VERSION, packed.getInt(0));
+    assertEquals(4, packed.getInt(4));
+    assertEquals(2, packed.getInt(8));
+    assertEquals(35, packed.getInt(12));
+    assertEquals(123456789L, packed.getLong(16));
+    assertEquals(7L, packed.getLong(24));
+    assertEquals(2, packed.getInt(32));
+
+    int chromaHeader = PackedImageFormat.HEADER_SIZE + PackedImageFormat.PLANE_HEADER_SIZE;
+    assertEquals(2, packed.getInt(chromaHeader));
+    assertEquals(2, packed.getInt(chromaHeader + 4));
+    assertEquals(dataOffset + 8, packed.getInt(chromaHeader + 8));
+    assertEquals(2, packed.getInt(chromaHeader + 12));
+    assertEquals(9, packed.get(dataOffset + 8));
+    assertEquals(10, packed.get(dataOffset + 9));
+  }
+
+  @Test
+  public void packedBufferIsLittleEndianAndReused() {
+    ImageStreamFramePool pool = new ImageStreamFramePool(1);
+    ImageStreamFramePool.Frame frame = pool.acquire();
+    frame.startPacked(2, 2, 35, 0, 0, 1, 4);
+    frame.packPlane(ByteBuffer.wrap(new byte[4]), 2, 1);
+    ByteBuffer packed = frame.getPacked();
+    assertEquals(2, packed.get(4));
+    frame.release();
+
+    frame = pool.acquire();
+    frame.startPacked(2, 2, 35, 0, 1, 1, 2);
+    frame.packPlane(ByteBuffer.wrap(new byte[2]), 2, 1);
+    assertSame(packed, frame.getPacked());
+    assertEquals(PackedImageFormat.getDataOffset(1) + 2, packed.position());
+  }
+}
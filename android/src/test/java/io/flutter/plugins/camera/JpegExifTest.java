@@ -0,0 +1,97 @@
+package io.flutter.plugins.camera;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+
+public class JpegExifTest {
+
+  @Test
+  public void readsBigEndianOrientation() {
+    assertEquals(6, JpegExif.readOrientation(jpeg(false, 6, true)));
+  }
+
+  @Test
+  public void readsLittleEndianOrientation() {
+    assertEquals(8, JpegExif.readOrientation(jpeg(true, 8, true)));
+  }
+
+  @Test
+  public void skipsSegmentsBeforeExif() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] exif = jpeg(false, 3, true);
+    out.write(exif, 0, 2);
+    // An APP0 segment with four bytes of data.
+    out.write(new byte[] {(byte) 0xff, (byte) 0xe0, 0, 6, 'J', 'F', 'I', 'F'}, 0, 8);
+    out.write(exif, 2, exif.length - 2);
+
+    assertEquals(3, JpegExif.readOrientation(out.toByteArray()));
+  }
+
+  @Test
+  public void isUndefinedWithoutOrientationTag() {
+    assertEquals(0, JpegExif.readOrientation(jpeg(false, 6, false)));
+  }
+
+  @Test
+  public void isUndefinedForGarbage() {
+    assertEquals(0, JpegExif.readOrientation(new byte[] {1, 2, 3}));
+    assertEquals(0, JpegExif.readOrientation(new byte[] {(byte) 0xff, (byte) 0xd8}));
+  }
+
+  /** Builds the start of a JPEG with an EXIF segment holding one IFD entry. */
+  static byte[] jpeg(boolean littleEndian, int orientation, boolean withOrientationTag) {
+    ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+    if (littleEndian) {
+      tiff.write('I');
+      tiff.write('I');
+    } else {
+      tiff.write('M');
+      tiff.write('M');
+    }
+    writeShort(tiff, 42, littleEndian);
+    writeInt(tiff, 8, littleEndian);
+    writeShort(tiff, 1, littleEndian);
+    // Tag, type SHORT, count 1, value padded to four bytes.
+    writeShort(tiff, withOrientationTag ? 0x0112 : 0x0100, littleEndian);
+    writeShort(tiff, 3, littleEndian);
+    writeInt(tiff, 1, littleEndian);
+    writeShort(tiff, orientation, littleEndian);
+    writeShort(tiff, 0, littleEndian);
+    writeInt(tiff, 0, littleEndian);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(0xff);
+    out.write(0xd8);
+    out.write(0xff);
+    out.write(0xe1);
+    writeShort(out, 2 + 6 + tiff.size(), false);
+    out.write(new byte[] {'E', 'x', 'i', 'f', 0, 0}, 0, 6);
+    byte[] tiffBytes = tiff.toByteArray();
+    out.write(tiffBytes, 0, tiffBytes.length);
+    out.write(0xff);
+    out.write(0xda);
+    return out.toByteArray();
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value, boolean littleEndian) {
+    if (littleEndian) {
+      out.write(value & 0xff);
+      out.write(value >> 8 & 0xff);
+    } else {
+      out.write(value >> 8 & 0xff);
+      out.write(value & 0xff);
+    }
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value, boolean littleEndian) {
+    if (littleEndian) {
+      writeShort(out, value & 0xffff, true);
+      writeShort(out, value >>> 16, true);
+    } else {
+      writeShort(out, value >>> 16, false);
+      writeShort(out, value & 0xffff, false);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class AnalyzerRegistrationTest {
+  private static final FrameAnalyzer<Integer> CAPACITY_ANALYZER =
+      (data, frameMetadata) -> data.capacity();
+
+  private final List<Long> delivered = new ArrayList<>();
+
+  @Test
+  public void inOrder_holdsBackLaterResults() {
+    AnalyzerRegistration<Integer> registration =
+        new AnalyzerRegistration<>(
+            CAPACITY_ANALYZER, (sequence, result) -> delivered.add(sequence), true, 4, 0);
+
+    registration.run(0, ByteBuffer.allocate(1), frame(0));
+    registration.run(2, ByteBuffer.allocate(1), frame(2));
+    registration.run(3, ByteBuffer.allocate(1), frame(3));
+    assertEquals(Arrays.asList(0L), delivered);
+
+    registration.run(1, ByteBuffer.allocate(1), frame(1));
+    assertEquals(Arrays.asList(0L, 1L, 2L, 3L), delivered);
+  }
+
+  @Test
+  public void inOrder_skippedFramesAreNotDelivered() {
+    AnalyzerRegistration<Integer> registration =
+        new AnalyzerRegistration<>(
+            CAPACITY_ANALYZER, (sequence, result) -> delivered.add(sequence), true, 4, 4);
+
+    registration.run(4, ByteBuffer.allocate(1), frame(4));
+    registration.run(5, ByteBuffer.allocate(1), frame(5));
+    registration.run(7, ByteBuffer.allocate(1), frame(7));
+    registration.run(6, null, frame(6));
+
+    assertEquals(Arrays.asList(4L, 5L, 7L), delivered);
+  }
+
+  @Test
+  public void inOrder_ignoresFramesTakenBeforeRegistration() {
+    AnalyzerRegistration<Integer> registration =
+        new AnalyzerRegistration<>(
+            CAPACITY_ANALYZER, (sequence, result) -> delivered.add(sequence), true, 4, 5);
+
+    registration.run(6, ByteBuffer.allocate(1), frame(6));
+    registration.run(4, ByteBuffer.allocate(1), frame(4));
+    assertEquals(Arrays.asList(), delivered);
+
+    registration.run(5, ByteBuffer.allocate(1), frame(5));
+    assertEquals(Arrays.asList(5L, 6L), delivered);
+  }
+
+  @Test
+  public void deliversFrameSequenceNumbers() {
+    AnalyzerRegistration<Integer> registration =
+        new AnalyzerRegistration<>(
+            CAPACITY_ANALYZER, (sequence, result) -> delivered.add(sequence), true, 4, 0);
+
+    registration.run(0, ByteBuffer.allocate(1), frame(10));
+    registration.run(1, ByteBuffer.allocate(1), frame(14));
+
+    assertEquals(Arrays.asList(10L, 14L), delivered);
+  }
+
+  @Test
+  public void outOfOrder_deliversImmediately() {
+    AnalyzerRegistration<Integer> registration =
+        new AnalyzerRegistration<>(
+            CAPACITY_ANALYZER, (sequence, result) -> delivered.add(sequence), false, 4, 0);
+
+    registration.run(2, ByteBuffer.allocate(1), frame(2));
+    registration.run(1, ByteBuffer.allocate(1), frame(1));
+
+    assertEquals(Arrays.asList(2L, 1L), delivered);
+  }
+
+  private static FrameMetadata frame(long sequenceNumber) {
+    return new FrameMetadata.Builder().setSequenceNumber(sequenceNumber).build();
+  }
+}
@@ -0,0 +1,76 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import android.app.Activity;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class CameraSourceTest {
+  private static final float FOUR_BY_THREE = 4f / 3f;
+
+  // 4000x3000, 3840x2160, 2560x1920, 2048x1536, 1920x1080, 1600x1200.
+  private static final int[] PICTURE_WIDTHS = {4000, 3840, 2560, 2048, 1920, 1600};
+  private static final int[] PICTURE_HEIGHTS = {3000, 2160, 1920, 1536, 1080, 1200};
+
+  @Test
+  public void picksFirstMatchingSizeWithoutMaxEdge() {
+    assertEquals(0, select(FOUR_BY_THREE, 0));
+  }
+
+  @Test
+  public void picksSmallestSizeReachingMaxEdge() {
+    assertEquals(3, select(FOUR_BY_THREE, 1920));
+    assertEquals(4, select(16f / 9f, 1920));
+  }
+
+  @Test
+  public void fallsBackToLargestSizeBelowMaxEdge() {
+    assertEquals(0, select(FOUR_BY_THREE, 5000));
+  }
+
+  @Test
+  public void returnsMinusOneWithoutMatchingAspectRatio() {
+    assertEquals(-1, select(1f, 1920));
+  }
+
+  private static int select(float aspectRatio, int maxEdge) {
+    return CameraSource.selectPictureSize(PICTURE_WIDTHS, PICTURE_HEIGHTS, aspectRatio, maxEdge);
+  }
+
+  @Test(timeout = 5000)
+  public void restartsWithInOrderAnalyzer() throws InterruptedException {
+    CameraSource source = new CameraSource(new Activity());
+    source.setBackpressurePolicy(BackpressurePolicy.boundedFifo(3));
+    source.addFrameAnalyzer((data, frameMetadata) -> 0, (sequence, result) -> {}, true);
+
+    // With one worker the ordering window holds two frames, so a take index lost on stop would
+    // block the third frame after the restart, and the next stop with it.
+    for (int run = 0; run < 3; run++) {
+      PreviewBufferPool pool = source.startWithoutCamera(3, 16);
+      for (int slot = 0; slot < 3; slot++) {
+        source.onPreviewFrame(pool.buffer(slot).array());
+        while (pool.getState(slot) != PreviewBufferPool.STATE_PROCESSING) {
+          Thread.sleep(1);
+        }
+      }
+      source.stop();
+    }
+  }
+
+  @Test
+  public void takeSharpPhoto_cancelsWithoutRunningCamera() {
+    CameraSource source = new CameraSource(new Activity());
+    AtomicInteger cancelled = new AtomicInteger();
+
+    source.takeSharpPhoto(
+        100, 1000, (data, camera) -> fail("No photo can be taken"), cancelled::incrementAndGet);
+    assertEquals(1, cancelled.get());
+
+    // Nothing is left waiting, so the next capture is not rejected.
+    source.takeSharpPhoto(
+        100, 1000, (data, camera) -> fail("No photo can be taken"), cancelled::incrementAndGet);
+    assertEquals(2, cancelled.get());
+  }
+}
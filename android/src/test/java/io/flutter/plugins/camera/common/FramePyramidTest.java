@@ -0,0 +1,95 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class FramePyramidTest {
+
+  @Test
+  public void levelSizes_areHalvedAndEven() {
+    FramePyramid pyramid = new FramePyramid();
+    pyramid.reset(ByteBuffer.allocate(1280 * 964 * 3 / 2), 1280, 964, true);
+
+    assertEquals(640, pyramid.getWidth(1));
+    assertEquals(482, pyramid.getHeight(1));
+    assertEquals(320, pyramid.getWidth(2));
+    assertEquals(240, pyramid.getHeight(2));
+    assertEquals(160, pyramid.getWidth(3));
+    assertEquals(120, pyramid.getHeight(3));
+  }
+
+  @Test
+  public void getNv21_averagesEveryLevel() {
+    int width = 64;
+    int height = 48;
+    byte[] frame = new byte[width * height * 3 / 2];
+    new Random(3).nextBytes(frame);
+    FramePyramid pyramid = new FramePyramid();
+    pyramid.reset(ByteBuffer.wrap(frame), width, height, true);
+
+    byte[] parent = frame;
+    for (int level = 1; level <= FramePyramid.MAX_LEVEL; level++) {
+      int parentWidth = pyramid.getWidth(level - 1);
+      int parentHeight = pyramid.getHeight(level - 1);
+      byte[] expected = referenceLevel(parent, parentWidth, parentHeight);
+      byte[] actual = pyramid.getNv21(level).array();
+      for (int i = 0; i < expected.length; i++) {
+        assertEquals("level " + level + " byte " + i, expected[i], actual[i]);
+      }
+      parent = expected;
+    }
+  }
+
+  @Test
+  public void getLuma_isSharedUntilReset() {
+    FramePyramid pyramid = new FramePyramid();
+    byte[] frame = new byte[16 * 16 * 3 / 2];
+    pyramid.reset(ByteBuffer.wrap(frame), 16, 16, true);
+    ByteBuffer level = pyramid.getLuma(2);
+    assertEquals(0, level.get(0));
+
+    assertSame(level, pyramid.getLuma(2));
+    assertSame(level, pyramid.getNv21(2));
+
+    // The next frame reuses the level buffers, and recomputes them on demand.
+    Arrays.fill(frame, (byte) 200);
+    pyramid.reset(ByteBuffer.wrap(frame), 16, 16, true);
+    assertSame(level, pyramid.getLuma(2));
+    assertEquals((byte) 200, level.get(0));
+  }
+
+  /** Averages 2x2 blocks of luma, and of each chroma component. */
+  private static byte[] referenceLevel(byte[] parent, int parentWidth, int parentHeight) {
+    int width = (parentWidth / 2) & ~1;
+    int height = (parentHeight / 2) & ~1;
+    byte[] out = new byte[width * height * 3 / 2];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        out[y * width + x] = average(parent, 2 * y * parentWidth + 2 * x, 1, parentWidth);
+      }
+    }
+    int parentChroma = parentWidth * parentHeight;
+    for (int y = 0; y < height / 2; y++) {
+      for (int x = 0; x < width; x++) {
+        // x walks the interleaved bytes, so the neighbouring pair is two bytes away.
+        int source = parentChroma + 2 * y * parentWidth + 2 * (x & ~1) + (x & 1);
+        out[width * height + y * width + x] = average(parent, source, 2, parentWidth);
+      }
+    }
+    return out;
+  }
+
+  private static byte average(byte[] data, int index, int step, int stride) {
+    int sum =
+        (data[index] & 0xff)
+            + (data[index + step] & 0xff)
+            + (data[index + stride] & 0xff)
+            + (data[index + stride + step] & 0xff);
+    return (byte) Math.round(sum / 4.0);
+  }
+}
@@ -0,0 +1,65 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.flutter.plugins.camera.common.CameraSource.FrameHandoff;
+import org.junit.Test;
+
+public class FrameQueueTest {
+  private static final int NO_SLOT = PreviewBufferPool.NO_SLOT;
+
+  @Test
+  public void latestOnly_replacesPendingFrame() {
+    for (FrameHandoff handoff : FrameHandoff.values()) {
+      FrameQueue queue = FrameQueue.create(handoff, BackpressurePolicy.latestOnly());
+
+      assertEquals(NO_SLOT, queue.offer(0));
+      assertEquals(0, queue.offer(1));
+      assertEquals(1, queue.take());
+    }
+  }
+
+  @Test
+  public void boundedFifo_keepsOrderAndDropsNewest() {
+    for (FrameHandoff handoff : FrameHandoff.values()) {
+      FrameQueue queue = FrameQueue.create(handoff, BackpressurePolicy.boundedFifo(2));
+
+      assertEquals(NO_SLOT, queue.offer(0));
+      assertEquals(NO_SLOT, queue.offer(1));
+      assertEquals(2, queue.offer(2));
+      assertEquals(0, queue.take());
+      assertEquals(NO_SLOT, queue.offer(3));
+      assertEquals(1, queue.take());
+      assertEquals(3, queue.take());
+    }
+  }
+
+  @Test
+  public void decimate_admitsEveryKthFrame() {
+    BackpressurePolicy policy = BackpressurePolicy.decimate(3);
+
+    assertTrue(policy.admit());
+    assertFalse(policy.admit());
+    assertFalse(policy.admit());
+    assertTrue(policy.admit());
+    assertEquals(2, policy.getDroppedCount());
+  }
+
+  @Test
+  public void take_returnsNoSlotOnceInactive() throws InterruptedException {
+    for (FrameHandoff handoff : FrameHandoff.values()) {
+      FrameQueue queue = FrameQueue.create(handoff, BackpressurePolicy.latestOnly());
+      int[] taken = new int[1];
+      Thread taker = new Thread(() -> taken[0] = queue.take());
+      taker.start();
+
+      queue.setActive(false);
+      taker.join(1000);
+
+      assertFalse(taker.isAlive());
+      assertEquals(NO_SLOT, taken[0]);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class FrameStatisticsTest {
+  private static final int WIDTH = 32;
+  private static final int HEIGHT = 16;
+
+  @Test
+  public void uniformFrame_hasNoVarianceOrSharpness() {
+    byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+    Arrays.fill(data, (byte) 200);
+    FrameStatistics statistics = new FrameStatistics();
+
+    statistics.compute(ByteBuffer.wrap(data), WIDTH, HEIGHT, 2);
+
+    assertEquals(16 * 8, statistics.getSampleCount());
+    assertEquals(16 * 8, statistics.getHistogramCount(200));
+    assertEquals(200.0, statistics.getMean(), 1e-9);
+    assertEquals(0.0, statistics.getVariance(), 1e-9);
+    assertEquals(0.0, statistics.getSharpness(), 1e-9);
+  }
+
+  @Test
+  public void halfBrightFrame_hasMeanAndVarianceOfTwoLevels() {
+    byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+    Arrays.fill(data, 0, WIDTH * HEIGHT / 2, (byte) 100);
+    Arrays.fill(data, WIDTH * HEIGHT / 2, WIDTH * HEIGHT, (byte) 50);
+    FrameStatistics statistics = new FrameStatistics();
+
+    statistics.compute(ByteBuffer.wrap(data), WIDTH, HEIGHT, 1);
+
+    int[] histogram = new int[FrameStatistics.HISTOGRAM_BINS];
+    statistics.getHistogram(histogram);
+    assertEquals(WIDTH * HEIGHT / 2, histogram[100]);
+    assertEquals(WIDTH * HEIGHT / 2, histogram[50]);
+    assertEquals(75.0, statistics.getMean(), 1e-9);
+    assertEquals(625.0, statistics.getVariance(), 1e-9);
+  }
+
+  @Test
+  public void sharpEdges_scoreHigherThanSoftOnes() {
+    FrameStatistics statistics = new FrameStatistics();
+
+    statistics.compute(stripes(0, 255), WIDTH, HEIGHT, 1);
+    double sharp = statistics.getSharpness();
+    statistics.compute(stripes(120, 135), WIDTH, HEIGHT, 1);
+    double soft = statistics.getSharpness();
+
+    assertTrue(sharp > 100 * soft);
+  }
+
+  /** Vertical stripes, one pixel wide, alternating between two luma values. */
+  private static ByteBuffer stripes(int dark, int bright) {
+    byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+    for (int i = 0; i < WIDTH * HEIGHT; i++) {
+      data[i] = (byte) ((i & 1) == 0 ? dark : bright);
+    }
+    return ByteBuffer.wrap(data);
+  }
+}
@@ -0,0 +1,46 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Rect;
+import android.graphics.RectF;
+import org.junit.Test;
+
+public class GraphicOverlayTest {
+  private static final int BACK = CameraSource.CAMERA_FACING_BACK;
+  private static final int FRONT = CameraSource.CAMERA_FACING_FRONT;
+
+  @Test
+  public void toPreviewRect_scalesBackCameraWindow() {
+    assertRect(90, 200, 180, 400, toPreviewRect(BACK, true));
+    assertRect(90, 200, 180, 400, toPreviewRect(BACK, false));
+  }
+
+  @Test
+  public void toPreviewRect_mirrorsFrontCameraWindowForSensorFrames() {
+    assertRect(300, 200, 390, 400, toPreviewRect(FRONT, false));
+  }
+
+  @Test
+  public void toPreviewRect_doesNotMirrorFrontCameraWindowForUprightFrames() {
+    // Upright front camera frames are already mirrored like the screen.
+    assertRect(90, 200, 180, 400, toPreviewRect(FRONT, true));
+  }
+
+  /** Maps a window on the left of a 1080x1440 view over 480x640 frames. */
+  private static Rect toPreviewRect(int facing, boolean uprightFrames) {
+    RectF window = new RectF();
+    window.left = 202.5f;
+    window.top = 450;
+    window.right = 405;
+    window.bottom = 900;
+    return GraphicOverlay.toPreviewRect(window, 1080, 1440, 480, 640, facing, uprightFrames);
+  }
+
+  private static void assertRect(int left, int top, int right, int bottom, Rect rect) {
+    assertEquals(left, rect.left);
+    assertEquals(top, rect.top);
+    assertEquals(right, rect.right);
+    assertEquals(bottom, rect.bottom);
+  }
+}
@@ -0,0 +1,62 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class MotionGateTest {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  @Test
+  public void skipsStaticFrames() {
+    MotionGate gate = new MotionGate(4, 8, 100);
+
+    assertTrue(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+    assertFalse(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+    assertFalse(gate.shouldProcess(frame(103), WIDTH, HEIGHT));
+    assertTrue(gate.shouldProcess(frame(110), WIDTH, HEIGHT));
+
+    assertEquals(2, gate.getPassedCount());
+    assertEquals(2, gate.getSkippedCount());
+  }
+
+  @Test
+  public void comparesWithLastProcessedFrame() {
+    MotionGate gate = new MotionGate(4, 8, 100);
+
+    gate.shouldProcess(frame(100), WIDTH, HEIGHT);
+    // Slow drift adds up against the reference, which only moves when a frame passes.
+    assertFalse(gate.shouldProcess(frame(103), WIDTH, HEIGHT));
+    assertTrue(gate.shouldProcess(frame(106), WIDTH, HEIGHT));
+  }
+
+  @Test
+  public void forcesRefreshAfterInterval() {
+    MotionGate gate = new MotionGate(4, 8, 3);
+
+    assertTrue(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+    assertFalse(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+    assertFalse(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+    assertTrue(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+    assertFalse(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+  }
+
+  @Test
+  public void passesResizedFrames() {
+    MotionGate gate = new MotionGate(4, 8, 100);
+
+    assertTrue(gate.shouldProcess(frame(100), WIDTH, HEIGHT));
+    assertTrue(gate.shouldProcess(frame(100), WIDTH / 2, HEIGHT / 2));
+  }
+
+  private static ByteBuffer frame(int luma) {
+    byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+    Arrays.fill(data, (byte) luma);
+    return ByteBuffer.wrap(data);
+  }
+}
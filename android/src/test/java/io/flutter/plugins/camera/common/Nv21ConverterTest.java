@@ -0,0 +1,126 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+public class Nv21ConverterTest {
+  private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+  @AfterClass
+  public static void shutDownPool() {
+    POOL.shutdown();
+  }
+
+  @Test
+  public void toArgb_matchesReference() {
+    // Below and above the parallel threshold.
+    assertArgbMatchesReference(new Nv21Converter(POOL), 64, 48);
+    assertArgbMatchesReference(new Nv21Converter(POOL), 640, 480);
+    assertArgbMatchesReference(new Nv21Converter(), 640, 480);
+  }
+
+  @Test
+  public void toRgb_matchesReference() {
+    int width = 640;
+    int height = 482;
+    ByteBuffer nv21 = randomFrame(width, height);
+    int[] expected = referenceArgb(nv21.array(), width, height);
+    byte[] rgb = new byte[width * height * 3];
+    ByteBuffer direct = ByteBuffer.allocateDirect(width * height * 3);
+
+    Nv21Converter converter = new Nv21Converter(POOL);
+    converter.toRgb(nv21, width, height, rgb);
+    converter.toRgb(nv21, width, height, direct);
+
+    for (int i = 0; i < width * height; i++) {
+      for (int c = 0; c < 3; c++) {
+        int reference = (expected[i] >> (16 - 8 * c)) & 0xff;
+        assertClose(reference, rgb[3 * i + c] & 0xff);
+        assertClose(reference, direct.get(3 * i + c) & 0xff);
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void toArgb_rejectsSmallOutput() {
+    new Nv21Converter().toArgb(randomFrame(4, 4), 4, 4, new int[15]);
+  }
+
+  /** Prints the conversion rate of 720p frames; not a pass/fail check, so only run on demand. */
+  @Ignore("Benchmark")
+  @Test
+  public void benchmark_toArgb720p() {
+    int width = 1280;
+    int height = 720;
+    ByteBuffer nv21 = randomFrame(width, height);
+    int[] argb = new int[width * height];
+    runBenchmark("sequential", new Nv21Converter(), nv21, width, height, argb);
+    runBenchmark("parallel(4)", new Nv21Converter(POOL), nv21, width, height, argb);
+  }
+
+  private static void runBenchmark(
+      String name, Nv21Converter converter, ByteBuffer nv21, int width, int height, int[] argb) {
+    for (int i = 0; i < 20; i++) {
+      converter.toArgb(nv21, width, height, argb);
+    }
+    int frames = 60;
+    long start = System.nanoTime();
+    for (int i = 0; i < frames; i++) {
+      converter.toArgb(nv21, width, height, argb);
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("Nv21Converter %s: %.1f frames/s%n", name, frames / seconds);
+  }
+
+  private static void assertArgbMatchesReference(Nv21Converter converter, int width, int height) {
+    ByteBuffer nv21 = randomFrame(width, height);
+    int[] expected = referenceArgb(nv21.array(), width, height);
+    int[] actual = new int[width * height];
+
+    converter.toArgb(nv21, width, height, actual);
+
+    for (int i = 0; i < actual.length; i++) {
+      assertTrue((actual[i] >>> 24) == 0xff);
+      for (int shift = 0; shift < 24; shift += 8) {
+        assertClose((expected[i] >> shift) & 0xff, (actual[i] >> shift) & 0xff);
+      }
+    }
+  }
+
+  private static void assertClose(int expected, int actual) {
+    assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= 1);
+  }
+
+  private static ByteBuffer randomFrame(int width, int height) {
+    byte[] data = new byte[width * height * 3 / 2];
+    new Random(width * 31 + height).nextBytes(data);
+    return ByteBuffer.wrap(data);
+  }
+
+  private static int[] referenceArgb(byte[] nv21, int width, int height) {
+    int[] argb = new int[width * height];
+    for (int row = 0; row < height; row++) {
+      for (int x = 0; x < width; x++) {
+        int chroma = width * height + (row / 2) * width + (x & ~1);
+        double y = nv21[row * width + x] & 0xff;
+        double v = (nv21[chroma] & 0xff) - 128;
+        double u = (nv21[chroma + 1] & 0xff) - 128;
+        int r = clamp(Math.round(y + 1.402 * v));
+        int g = clamp(Math.round(y - 0.344136 * u - 0.714136 * v));
+        int b = clamp(Math.round(y + 1.772 * u));
+        argb[row * width + x] = 0xff000000 | r << 16 | g << 8 | b;
+      }
+    }
+    return argb;
+  }
+
+  private static int clamp(long value) {
+    return (int) Math.max(0, Math.min(255, value));
+  }
+}
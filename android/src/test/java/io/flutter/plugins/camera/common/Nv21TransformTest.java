@@ -0,0 +1,129 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class Nv21TransformTest {
+
+  @Test
+  public void transform_matchesReferenceForEveryOrientation() {
+    // Not a multiple of the tile size, to cover the partial tiles.
+    int width = 70;
+    int height = 38;
+    byte[] src = new byte[width * height * 3 / 2];
+    new Random(7).nextBytes(src);
+
+    for (int rotation = 0; rotation < 4; rotation++) {
+      for (boolean mirror : new boolean[] {false, true}) {
+        byte[] actual = new byte[src.length];
+        Nv21Transform.transform(src, width, height, rotation, mirror, actual);
+        assertArrayEquals(
+            "rotation " + rotation + ", mirror " + mirror,
+            reference(src, width, height, rotation, mirror),
+            actual);
+      }
+    }
+  }
+
+  @Test
+  public void transform_rotatesClockwise() {
+    // 2x2 luma block, a single VU pair.
+    byte[] src = {1, 2, 3, 4, 5, 6};
+    byte[] dst = new byte[6];
+
+    Nv21Transform.transform(src, 2, 2, 1, false, dst);
+
+    assertArrayEquals(new byte[] {3, 1, 4, 2, 5, 6}, dst);
+  }
+
+  @Test
+  public void crop_copiesBothPlanes() {
+    // 4x4 luma numbered 0..15, chroma rows {16..19} and {20..23}.
+    byte[] src = new byte[24];
+    for (int i = 0; i < src.length; i++) {
+      src[i] = (byte) i;
+    }
+    byte[] dst = new byte[6];
+
+    Nv21Transform.crop(src, 4, 4, 2, 2, 4, 4, dst);
+
+    assertArrayEquals(new byte[] {10, 11, 14, 15, 22, 23}, dst);
+  }
+
+  @Test
+  public void cropAndTransform_matchesTransformThenCrop() {
+    int width = 40;
+    int height = 24;
+    byte[] src = new byte[width * height * 3 / 2];
+    new Random(11).nextBytes(src);
+
+    for (int rotation = 0; rotation < 4; rotation++) {
+      for (boolean mirror : new boolean[] {false, true}) {
+        int outWidth = Nv21Transform.getOutputWidth(width, height, rotation);
+        int outHeight = Nv21Transform.getOutputHeight(width, height, rotation);
+        byte[] transformed = new byte[src.length];
+        Nv21Transform.transform(src, width, height, rotation, mirror, transformed);
+        byte[] expected = new byte[8 * 6 * 3 / 2];
+        Nv21Transform.crop(transformed, outWidth, outHeight, 4, 2, 12, 8, expected);
+
+        byte[] actual = new byte[expected.length];
+        Nv21Transform.cropAndTransform(
+            src, width, height, rotation, mirror, 4, 2, 12, 8, new byte[expected.length], actual,
+            true);
+
+        assertArrayEquals("rotation " + rotation + ", mirror " + mirror, expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void transform_withoutChroma_leavesChromaPlane() {
+    byte[] src = {1, 2, 3, 4, 5, 6};
+    byte[] dst = new byte[6];
+
+    Nv21Transform.transform(src, 2, 2, 1, false, dst, false);
+
+    assertArrayEquals(new byte[] {3, 1, 4, 2, 0, 0}, dst);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void transform_rejectsOddSizes() {
+    Nv21Transform.transform(new byte[30], 5, 4, 1, false, new byte[30]);
+  }
+
+  /** Maps every output sample back to its source, one pixel at a time. */
+  private static byte[] reference(byte[] src, int width, int height, int rotation, boolean mirror) {
+    int outWidth = Nv21Transform.getOutputWidth(width, height, rotation);
+    int outHeight = Nv21Transform.getOutputHeight(width, height, rotation);
+    byte[] out = new byte[src.length];
+    for (int oy = 0; oy < outHeight; oy++) {
+      for (int ox = 0; ox < outWidth; ox++) {
+        int[] source = sourceOf(mirror ? outWidth - 1 - ox : ox, oy, width, height, rotation);
+        out[oy * outWidth + ox] = src[source[1] * width + source[0]];
+        if ((ox & 1) == 0 && (oy & 1) == 0) {
+          int chroma = width * height + (source[1] / 2) * width + (source[0] & ~1);
+          int outChroma = width * height + (oy / 2) * outWidth + ox;
+          out[outChroma] = src[chroma];
+          out[outChroma + 1] = src[chroma + 1];
+        }
+      }
+    }
+    return out;
+  }
+
+  /** Returns the source pixel that a clockwise rotation moves to (x, y). */
+  private static int[] sourceOf(int x, int y, int width, int height, int rotation) {
+    switch (rotation) {
+      case 0:
+        return new int[] {x, y};
+      case 1:
+        return new int[] {y, height - 1 - x};
+      case 2:
+        return new int[] {width - 1 - x, height - 1 - y};
+      default:
+        return new int[] {width - 1 - y, x};
+    }
+  }
+}
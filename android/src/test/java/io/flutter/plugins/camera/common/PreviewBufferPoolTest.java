@@ -0,0 +1,105 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreviewBufferPoolTest {
+  private static final int FRAME_SIZE = 16;
+
+  private PreviewBufferPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new PreviewBufferPool(1, 3, FRAME_SIZE, lease -> {});
+  }
+
+  @Test
+  public void slotOf_resolvesOwnArrays() {
+    int first = pool.addSlot();
+    int second = pool.addSlot();
+
+    assertEquals(first, pool.slotOf(pool.buffer(first).array()));
+    assertEquals(second, pool.slotOf(pool.buffer(second).array()));
+  }
+
+  @Test
+  public void slotOf_rejectsForeignArrays() {
+    int slot = pool.addSlot();
+
+    assertEquals(PreviewBufferPool.NO_SLOT, pool.slotOf(new byte[FRAME_SIZE + slot]));
+    assertEquals(PreviewBufferPool.NO_SLOT, pool.slotOf(new byte[FRAME_SIZE - 1]));
+    assertEquals(PreviewBufferPool.NO_SLOT, pool.slotOf(new byte[FRAME_SIZE + 3]));
+  }
+
+  @Test
+  public void addSlot_stopsAtCapacity() {
+    pool.addSlot();
+    pool.addSlot();
+    pool.addSlot();
+
+    assertEquals(PreviewBufferPool.NO_SLOT, pool.addSlot());
+    assertEquals(3, pool.getSize());
+  }
+
+  @Test
+  public void setState_countsHits() {
+    int slot = pool.addSlot();
+    byte[] array = pool.lendToCamera(slot);
+    pool.setState(slot, PreviewBufferPool.STATE_PENDING);
+    pool.setState(slot, PreviewBufferPool.STATE_PROCESSING);
+    pool.lendToCamera(slot);
+
+    assertSame(pool.buffer(slot).array(), array);
+    assertEquals(PreviewBufferPool.STATE_WITH_CAMERA, pool.getState(slot));
+    assertEquals(1, pool.getStateHitCount(PreviewBufferPool.STATE_FREE));
+    assertEquals(2, pool.getStateHitCount(PreviewBufferPool.STATE_WITH_CAMERA));
+    assertEquals(1, pool.getStateHitCount(PreviewBufferPool.STATE_PENDING));
+    assertEquals(1, pool.getStateHitCount(PreviewBufferPool.STATE_PROCESSING));
+  }
+
+  @Test
+  public void clear_dropsBuffers() {
+    int slot = pool.addSlot();
+    byte[] array = pool.buffer(slot).array();
+
+    pool.clear();
+
+    assertNull(pool.buffer(slot));
+    assertEquals(PreviewBufferPool.NO_SLOT, pool.slotOf(array));
+    assertEquals(0, pool.getSize());
+  }
+
+  @Test
+  public void onFrameHandedOff_growsWhenCameraStarves() {
+    int slot = pool.addSlot();
+    pool.lendToCamera(slot);
+    pool.setState(slot, PreviewBufferPool.STATE_PENDING);
+
+    assertTrue(pool.onFrameHandedOff());
+    assertEquals(1, pool.getStarvationCount());
+  }
+
+  @Test
+  public void retireIfShrinking_shrinksAfterSustainedIdleFrames() {
+    int pending = pool.addSlot();
+    pool.lendToCamera(pool.addSlot());
+    pool.lendToCamera(pool.addSlot());
+    pool.setState(pending, PreviewBufferPool.STATE_PENDING);
+
+    for (int i = 1; i < PreviewBufferPool.SHRINK_AFTER_IDLE_FRAMES; i++) {
+      assertFalse(pool.onFrameHandedOff());
+    }
+    assertFalse(pool.retireIfShrinking(pending));
+
+    assertFalse(pool.onFrameHandedOff());
+    assertTrue(pool.retireIfShrinking(pending));
+    assertNull(pool.buffer(pending));
+    assertEquals(2, pool.getSize());
+  }
+}
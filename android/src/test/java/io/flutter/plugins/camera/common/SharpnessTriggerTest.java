@@ -0,0 +1,49 @@
+package io.flutter.plugins.camera.common;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SharpnessTriggerTest {
+  private static final long FRAME_NANOS = 33_000_000L;
+  private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+  @Test
+  public void firesWhenThresholdIsReached() {
+    SharpnessTrigger trigger = new SharpnessTrigger(100, 5, NO_DEADLINE);
+
+    assertFalse(trigger.onFrame(40, 0));
+    assertTrue(trigger.onFrame(120, FRAME_NANOS));
+    assertFalse(trigger.onFrame(130, 2 * FRAME_NANOS));
+  }
+
+  @Test
+  public void firesAfterPeakOnceWindowIsFull() {
+    SharpnessTrigger trigger = new SharpnessTrigger(Double.POSITIVE_INFINITY, 3, NO_DEADLINE);
+
+    // Falling scores don't fire until the window is full.
+    assertFalse(trigger.onFrame(50, 0));
+    assertFalse(trigger.onFrame(40, FRAME_NANOS));
+    assertFalse(trigger.onFrame(60, 2 * FRAME_NANOS));
+    assertFalse(trigger.onFrame(70, 3 * FRAME_NANOS));
+    assertTrue(trigger.onFrame(65, 4 * FRAME_NANOS));
+  }
+
+  @Test
+  public void firesOnDeadline() {
+    SharpnessTrigger trigger = new SharpnessTrigger(Double.POSITIVE_INFINITY, 3, 3 * FRAME_NANOS);
+
+    assertFalse(trigger.onFrame(10, 0));
+    assertFalse(trigger.onFrame(20, FRAME_NANOS));
+    assertFalse(trigger.onFrame(30, 2 * FRAME_NANOS));
+    assertTrue(trigger.onFrame(40, 3 * FRAME_NANOS));
+  }
+
+  @Test
+  public void firesOnFirstFrameAfterDeadline() {
+    SharpnessTrigger trigger = new SharpnessTrigger(Double.POSITIVE_INFINITY, 3, 3 * FRAME_NANOS);
+
+    assertTrue(trigger.onFrame(10, 5 * FRAME_NANOS));
+  }
+}
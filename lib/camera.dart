@@ -338,8 +338,33 @@ class CameraController extends ValueNotifier<CameraValue> {
   /// If a file already exists at the provided path an error will be thrown.
   /// The file can be read as this function returns.
   ///
+  /// If [waitForSharpFrame] is true, the capture waits until the preview is
+  /// sharp, to avoid blurred shots from a moving camera. It fires once the
+  /// preview's sharpness score reaches [sharpnessThreshold], right after the
+  /// score peaks, or after [sharpFrameTimeout], whichever comes first. Without
+  /// a threshold, it waits for a peak or the timeout. If the camera is not
+  /// running or is stopped while it waits, the capture fails with the code
+  /// `captureCancelled`.
+  ///
+  /// With [lowMemoryDecode], the photo is decoded at 16 bits per pixel while
+  /// it is resized, which halves the memory it needs at some cost in color
+  /// depth.
+  ///
+  /// With [exifOrientation], the photo keeps the pixel layout of the sensor
+  /// and its orientation is recorded in the EXIF Orientation tag instead of
+  /// being applied to the pixels. This is much cheaper, and photos small
+  /// enough to need no resizing are saved as captured. Only use it if
+  /// whatever reads the file honors that tag.
+  ///
   /// Throws a [CameraException] if the capture fails.
-  Future<void> takePicture(String path) async {
+  Future<void> takePicture(
+    String path, {
+    bool waitForSharpFrame = false,
+    double sharpnessThreshold,
+    Duration sharpFrameTimeout = const Duration(seconds: 2),
+    bool lowMemoryDecode = false,
+    bool exifOrientation = false,
+  }) async {
     if (!value.isInitialized || _isDisposed) {
       throw CameraException(
         'Uninitialized CameraController.',
@@ -356,7 +381,15 @@ class CameraController extends ValueNotifier<CameraValue> {
       value = value.copyWith(isTakingPicture: true);
       await _channel.invokeMethod<void>(
         'takePicture',
-        <String, dynamic>{'textureId': _textureId, 'path': path},
+        <String, dynamic>{
+          'textureId': _textureId,
+          'path': path,
+          'waitForSharpFrame': waitForSharpFrame,
+          'sharpnessThreshold': sharpnessThreshold,
+          'sharpFrameTimeoutMillis': sharpFrameTimeout.inMilliseconds,
+          'lowMemoryDecode': lowMemoryDecode,
+          'exifOrientation': exifOrientation,
+        },
       );
       value = value.copyWith(isTakingPicture: false);
     } on PlatformException catch (e) {